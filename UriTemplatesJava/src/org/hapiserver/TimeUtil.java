@@ -93,6 +93,41 @@ public class TimeUtil {
         {0, 0, 31, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335, 366}
     };
     
+    /**
+     * the first year of the calendar tables.
+     */
+    private static final int TABLE_FIRST_YEAR = URITemplate.MIN_VALID_YEAR;
+    
+    /**
+     * the last year of the calendar tables.
+     */
+    private static final int TABLE_LAST_YEAR = URITemplate.MAX_VALID_YEAR;
+    
+    /**
+     * the Julian day of January 1st of each year from TABLE_FIRST_YEAR through 
+     * TABLE_LAST_YEAR+1.  A year is a leap year when the next year starts 366 days later.
+     */
+    private static final int[] JANUARY_FIRST_JULIAN_DAY = new int[ TABLE_LAST_YEAR - TABLE_FIRST_YEAR + 2 ];
+    
+    /**
+     * the month containing each day of year.  MONTH_OF_DAY_OF_YEAR[1][60] is 2, 
+     * since February 29th is the 60th day of a leap year.
+     */
+    private static final byte[][] MONTH_OF_DAY_OF_YEAR = new byte[2][367];
+    
+    static {
+        for ( int i=0; i<JANUARY_FIRST_JULIAN_DAY.length; i++ ) {
+            JANUARY_FIRST_JULIAN_DAY[i]= (int)gregorianJulianDay( TABLE_FIRST_YEAR + i, 1, 1 );
+        }
+        for ( int leap=0; leap<2; leap++ ) {
+            for ( int month=1; month<13; month++ ) {
+                for ( int doy=DAY_OFFSET[leap][month]+1; doy<=DAY_OFFSET[leap][month+1]; doy++ ) {
+                    MONTH_OF_DAY_OF_YEAR[leap][doy]= (byte)month;
+                }
+            }
+        }
+    }
+    
     /**
      * short English abbreviations for month names.  
      */
@@ -205,6 +240,28 @@ public class TimeUtil {
         return result;
     }
     
+    /**
+     * copy the seven element start time from the time range into the array, 
+     * without creating a new array.
+     * @param timerange a fourteen-element time range.
+     * @param result the array for the start time, starting at offset.
+     * @param offset the index of the year in the result.
+     */
+    public static void getStartTime( int[] timerange, int[] result, int offset ) {
+        System.arraycopy( timerange, 0, result, offset, TimeUtil.TIME_DIGITS );
+    }
+    
+    /**
+     * copy the seven element stop time from the time range into the array, 
+     * without creating a new array.
+     * @param timerange a fourteen-element time range.
+     * @param result the array for the stop time, starting at offset.
+     * @param offset the index of the year in the result.
+     */
+    public static void getStopTime( int[] timerange, int[] result, int offset ) {
+        System.arraycopy( timerange, TimeUtil.TIME_DIGITS, result, offset, TimeUtil.TIME_DIGITS );
+    }
+    
     /**
      * copy the components of time into the start position (indeces 7-14) of the time range.
      * This one-line method was introduced to clarify code and make conversion to 
@@ -260,15 +317,37 @@ public class TimeUtil {
     }
     
     /**
-     * true if the year between 1582 and 2400 is a leap year.
+     * true if the year between 1582 and 9000 is a leap year.
      * @param year the year
-     * @return true if the year between 1582 and 2400 is a leap year.
+     * @return true if the year between 1582 and 9000 is a leap year.
      */
     private static boolean isLeapYear(int year) {
-        if (year < 1582 || year > 2400) {
-            throw new IllegalArgumentException("year must be between 1582 and 2400");
+        if (year < TABLE_FIRST_YEAR || year > TABLE_LAST_YEAR) {
+            throw new IllegalArgumentException(YEAR_RANGE_MESSAGE);
+        }
+        int i= year - TABLE_FIRST_YEAR;
+        return JANUARY_FIRST_JULIAN_DAY[i+1] - JANUARY_FIRST_JULIAN_DAY[i] == 366;
+    }
+    
+    /**
+     * return the index of the year containing the Julian day in JANUARY_FIRST_JULIAN_DAY,
+     * or -1 if the day is not within the table.  The index is estimated from the 
+     * length of 400 Gregorian years, and is then off by no more than one year.
+     * @param julian the Julian day
+     * @return the index, which is the year minus TABLE_FIRST_YEAR, or -1.
+     */
+    private static int yearIndex( int julian ) {
+        int[] jan1= JANUARY_FIRST_JULIAN_DAY;
+        if ( julian < jan1[0] || julian >= jan1[jan1.length-1] ) {
+            return -1;
+        }
+        int i= (int)( ( julian - jan1[0] ) * 400L / 146097 );
+        if ( jan1[i] > julian ) {
+            i--;
+        } else if ( jan1[i+1] <= julian ) {
+            i++;
         }
-        return (year % 4) == 0 && (year % 400 == 0 || year % 100 != 0);
+        return i;
     }
 
     /**
@@ -303,16 +382,60 @@ public class TimeUtil {
      * @throws ParseException when month name is not recognized.
      */
     public static int monthNumber(String s) throws ParseException {
-        if (s.length() < 3) {
+        return monthNumber( s, 0, s.length() );
+    }
+
+    /**
+     * return the month number for the name found within the characters
+     * from start to end, without creating a String.
+     * @param s the characters containing the name.
+     * @param start the index of the first character of the name
+     * @param end the index following the last character of the name
+     * @return the number, for example 1 for "January"
+     * @throws ParseException when month name is not recognized.
+     * @see #monthNumber(java.lang.String) 
+     */
+    public static int monthNumber( CharSequence s, int start, int end ) throws ParseException {
+        int month= findMonthNumber( s, start, end );
+        if ( month==-1 ) {
             throw new ParseException("need at least three letters", 0);
+        } else if ( month==0 ) {
+            throw new ParseException("Unable to parse month", 0);
+        } else {
+            return month;
+        }
+    }
+    
+    /**
+     * return the month number for the name found within the characters
+     * from start to end, or 0 when the month is not recognized, or -1 when
+     * there are not three letters.
+     * @param s the characters containing the name.
+     * @param start the index of the first character of the name
+     * @param end the index following the last character of the name
+     * @return the number, for example 1 for "January", or 0 or -1.
+     */
+    static int findMonthNumber( CharSequence s, int start, int end ) {
+        if ( end - start < 3 ) {
+            return -1;
         }
-        s = s.substring(0, 3);
         for (int i = 1; i < 13; i++) {
-            if (s.equalsIgnoreCase(MONTH_NAMES[i])) {
+            String name= MONTH_NAMES[i];
+            boolean match= true;
+            for ( int j=0; j<3; j++ ) {
+                char c1= s.charAt(start+j);
+                char c2= name.charAt(j);
+                if ( c1!=c2 && Character.toUpperCase(c1)!=Character.toUpperCase(c2) 
+                        && Character.toLowerCase(c1)!=Character.toLowerCase(c2) ) {
+                    match= false;
+                    break;
+                }
+            }
+            if ( match ) {
                 return i;
             }
         }
-        throw new ParseException("Unable to parse month", 0);
+        return 0;
     }
 
     /**
@@ -360,12 +483,7 @@ public class TimeUtil {
         if ( doy>dayOffset[13] ) {
             throw new IllegalArgumentException("doy must be less than or equal to "+dayOffset[13]);
         }        
-        for ( int i=12; i>1; i-- ) {
-            if ( dayOffset[i]<doy ) {
-                return i;
-            }
-        }
-        return 1;
+        return MONTH_OF_DAY_OF_YEAR[leap][doy];
     }
 
     /**
@@ -396,7 +514,7 @@ public class TimeUtil {
             result[i] = time;
             nn[2] = nn[2] + 1;
             if ( nn[2]>28 ) normalizeTime(nn);
-            time =  String.format("%04d-%02d-%02dZ", nn[0], nn[1], nn[2]);
+            time= formatIso8601Time( nn, 0, ISO8601_DATE );
             i += 1;
         }
         return result;
@@ -415,7 +533,7 @@ public class TimeUtil {
         int[] nn = isoTimeToArray(day);
         nn[2] = nn[2] + 1;
         normalizeTime(nn);
-        return String.format("%04d-%02d-%02dZ", nn[0], nn[1], nn[2]);
+        return formatIso8601Time( nn, 0, ISO8601_DATE );
     }
 
     /**
@@ -431,7 +549,7 @@ public class TimeUtil {
         int[] nn = isoTimeToArray(day);
         nn[2] = nn[2] - 1;
         normalizeTime(nn);
-        return String.format("%04d-%02d-%02dZ", nn[0], nn[1], nn[2]);
+        return formatIso8601Time( nn, 0, ISO8601_DATE );
     }
 
     /**
@@ -475,7 +593,7 @@ public class TimeUtil {
     public static String normalizeTimeString(String time) {
         int[] nn = isoTimeToArray(time);
         normalizeTime(nn);
-        return String.format("%d-%02d-%02dT%02d:%02d:%02d.%09dZ", nn[0], nn[1], nn[2], nn[3], nn[4], nn[5], nn[6]);
+        return formatIso8601Time( nn, 0, ISO8601_FULL );
     }
 
     /**
@@ -503,6 +621,476 @@ public class TimeUtil {
         return d.getTime();
     }
 
+    /**
+     * the Julian day of 1970-01-01.
+     */
+    private static final int JULIAN_DAY_1970 = 2440588;
+    
+    /**
+     * the first year which can always be represented as nanoseconds since 1970 in a long.
+     */
+    public static final int NANOSECONDS_SINCE_1970_FIRST_YEAR = 1678;
+
+    /**
+     * the last year which can always be represented as nanoseconds since 1970 in a long.
+     */
+    public static final int NANOSECONDS_SINCE_1970_LAST_YEAR = 2261;
+    
+    /**
+     * return the seven-component time found at the offset as the number 
+     * of (non-leap) nanoseconds since 1970-01-01T00:00Z.  The time must be 
+     * normalized, and the year must be from 1678 to 2261 so that the result 
+     * fits in a long.  
+     * @param time an array containing the seven-component time
+     * @param offset the index of the year component, typically 0 or 7.
+     * @return the number of non-leap-second nanoseconds since 1970-01-01T00:00Z.
+     * @throws IllegalArgumentException when the year is outside of 1678 to 2261.
+     * @see #fromNanosecondsSince1970(long, int[], int) 
+     */
+    public static long toNanosecondsSince1970( int[] time, int offset ) {
+        int year= time[offset];
+        if ( year<NANOSECONDS_SINCE_1970_FIRST_YEAR || year>NANOSECONDS_SINCE_1970_LAST_YEAR ) {
+            throw new IllegalArgumentException("year must be between 1678 and 2261: "+year);
+        }
+        long days= julianDay( year, time[offset+1], time[offset+2] ) - JULIAN_DAY_1970;
+        long seconds= days * 86400L + time[offset+3] * 3600L + time[offset+4] * 60L + time[offset+5];
+        return seconds * 1000000000L + time[offset+6];
+    }
+    
+    /**
+     * set the seven-component time at the offset to the time which is the 
+     * number of (non-leap) nanoseconds since 1970-01-01T00:00Z.
+     * @param nanos the number of non-leap-second nanoseconds since 1970-01-01T00:00Z.
+     * @param result the array which will contain the seven-component time
+     * @param offset the index of the year component, typically 0 or 7.
+     * @see #toNanosecondsSince1970(int[], int) 
+     */
+    public static void fromNanosecondsSince1970( long nanos, int[] result, int offset ) {
+        long seconds= Math.floorDiv( nanos, 1000000000L );
+        int nanosOfSecond= (int)( nanos - seconds * 1000000000L );
+        long days= Math.floorDiv( seconds, 86400L );
+        int secondsOfDay= (int)( seconds - days * 86400L );
+        fromJulianDay( (int)days + JULIAN_DAY_1970, result, offset );
+        result[offset+3]= secondsOfDay / 3600;
+        result[offset+4]= ( secondsOfDay % 3600 ) / 60;
+        result[offset+5]= secondsOfDay % 60;
+        result[offset+6]= nanosOfSecond;
+    }
+
+    /**
+     * return the seven-component time found at the offset as the number 
+     * of (non-leap) milliseconds since 1970-01-01T00:00Z, truncating any 
+     * fraction of a millisecond.  This is calculated from the components,
+     * rather than by formatting and parsing a string.
+     * @param time an array containing the seven-component time, which must be normalized.
+     * @param offset the index of the year component, typically 0 or 7.
+     * @return the number of non-leap-second milliseconds since 1970-01-01T00:00Z.
+     * @see #toMillisecondsSince1970(java.lang.String) 
+     * @see #fromMillisecondsSince1970(long, int[], int) 
+     */
+    public static long toMillisecondsSince1970( int[] time, int offset ) {
+        long days= julianDay( time[offset], time[offset+1], time[offset+2] ) - JULIAN_DAY_1970;
+        long seconds= days * 86400L + time[offset+3] * 3600L + time[offset+4] * 60L + time[offset+5];
+        return seconds * 1000L + time[offset+6] / 1000000;
+    }
+    
+    /**
+     * set the seven-component time at the offset to the time which is the 
+     * number of (non-leap) milliseconds since 1970-01-01T00:00Z.
+     * @param millis the number of non-leap-second milliseconds since 1970-01-01T00:00Z.
+     * @param result the array which will contain the seven-component time
+     * @param offset the index of the year component, typically 0 or 7.
+     * @see #toMillisecondsSince1970(int[], int) 
+     */
+    public static void fromMillisecondsSince1970( long millis, int[] result, int offset ) {
+        long seconds= Math.floorDiv( millis, 1000L );
+        int millisOfSecond= (int)( millis - seconds * 1000L );
+        long days= Math.floorDiv( seconds, 86400L );
+        int secondsOfDay= (int)( seconds - days * 86400L );
+        fromJulianDay( (int)( days + JULIAN_DAY_1970 ), result, offset );
+        result[offset+3]= secondsOfDay / 3600;
+        result[offset+4]= ( secondsOfDay % 3600 ) / 60;
+        result[offset+5]= secondsOfDay % 60;
+        result[offset+6]= millisOfSecond * 1000000;
+    }
+
+    private static final long NANOSECONDS_PER_DAY= 86400000000000L;
+    
+    /**
+     * return the year, month and day of the Julian day, packed into one 
+     * number as year*10000+month*100+day, so that no array is needed.
+     * @param julian the Julian day
+     * @return year*10000+month*100+day
+     * @see #fromJulianDay(int, int[], int) 
+     */
+    private static int packedDateFromJulianDay( int julian ) {
+        int i= yearIndex( julian );
+        if ( i>-1 ) {
+            int jan1= JANUARY_FIRST_JULIAN_DAY[i];
+            int leap= JANUARY_FIRST_JULIAN_DAY[i+1] - jan1 - 365;
+            int doy= julian - jan1 + 1;
+            int month= MONTH_OF_DAY_OF_YEAR[leap][doy];
+            return ( TABLE_FIRST_YEAR + i ) * 10000 + month * 100 + doy - DAY_OFFSET[leap][month];
+        }
+        int j = julian + 32044;
+        int g = j / 146097;
+        int dg = j % 146097;
+        int c = (dg / 36524 + 1) * 3 / 4;
+        int dc = dg - c * 36524;
+        int b = dc / 1461;
+        int db = dc % 1461;
+        int a = (db / 365 + 1) * 3 / 4;
+        int da = db - a * 365;
+        int y = g * 400 + c * 100 + b * 4 + a;
+        int m = (da * 5 + 308) / 153 - 2;
+        int d = da - (m + 4) * 153 / 5 + 122;
+        return ( y - 4800 + (m + 2) / 12 ) * 10000 + ( (m + 2) % 12 + 1 ) * 100 + d + 1;
+    }
+    
+    /**
+     * return the Julian day containing the time, which is (non-leap) 
+     * nanoseconds since 1970-01-01T00:00Z.
+     * @param nanos the number of non-leap-second nanoseconds since 1970-01-01T00:00Z.
+     * @return the Julian day
+     * @see #julianDay(int, int, int) 
+     */
+    public static int julianDay( long nanos ) {
+        return (int)Math.floorDiv( nanos, NANOSECONDS_PER_DAY ) + JULIAN_DAY_1970;
+    }
+    
+    /**
+     * return the day of year of the time, which is (non-leap) nanoseconds 
+     * since 1970-01-01T00:00Z.
+     * @param nanos the number of non-leap-second nanoseconds since 1970-01-01T00:00Z.
+     * @return the day of year, from 1 to 366.
+     * @see #dayOfYear(int, int, int) 
+     */
+    public static int dayOfYear( long nanos ) {
+        int jd= julianDay( nanos );
+        int year= packedDateFromJulianDay( jd ) / 10000;
+        return jd - julianDay( year, 1, 1 ) + 1;
+    }
+    
+    /**
+     * return one component of the time, which is (non-leap) nanoseconds 
+     * since 1970-01-01T00:00Z, without creating an array.
+     * @param nanos the number of non-leap-second nanoseconds since 1970-01-01T00:00Z.
+     * @param component the component, such as COMPONENT_YEAR or COMPONENT_HOUR.
+     * @return the component, as it would be found by fromNanosecondsSince1970.
+     * @see #fromNanosecondsSince1970(long, int[], int) 
+     */
+    public static int getComponent( long nanos, int component ) {
+        long days= Math.floorDiv( nanos, NANOSECONDS_PER_DAY );
+        long nanosOfDay= nanos - days * NANOSECONDS_PER_DAY;
+        switch ( component ) {
+            case COMPONENT_YEAR:
+                return packedDateFromJulianDay( (int)days + JULIAN_DAY_1970 ) / 10000;
+            case COMPONENT_MONTH:
+                return packedDateFromJulianDay( (int)days + JULIAN_DAY_1970 ) / 100 % 100;
+            case COMPONENT_DAY:
+                return packedDateFromJulianDay( (int)days + JULIAN_DAY_1970 ) % 100;
+            case COMPONENT_HOUR:
+                return (int)( nanosOfDay / 3600000000000L );
+            case COMPONENT_MINUTE:
+                return (int)( nanosOfDay / 60000000000L % 60 );
+            case COMPONENT_SECOND:
+                return (int)( nanosOfDay / 1000000000L % 60 );
+            case COMPONENT_NANOSECOND:
+                return (int)( nanosOfDay % 1000000000L );
+            default:
+                throw new IllegalArgumentException("bad component: "+component);
+        }
+    }
+    
+    /**
+     * add the offset to the time, which is (non-leap) nanoseconds since 
+     * 1970-01-01T00:00Z, giving the same time as add(int[],int[]) does for 
+     * the seven-component time.  Years and months are added to the calendar 
+     * date, and 2000-01-31 plus one month is 2000-03-02, while the other 
+     * components are added as nanoseconds.  Times in nanoseconds can be 
+     * compared and sorted as longs.
+     * @param nanos the number of non-leap-second nanoseconds since 1970-01-01T00:00Z.
+     * @param offset offset in each component.
+     * @return the number of non-leap-second nanoseconds since 1970-01-01T00:00Z.
+     * @see #add(int[], int[]) 
+     */
+    public static long add( long nanos, int[] offset ) {
+        return addComponents( nanos, offset, 1 );
+    }
+    
+    /**
+     * subtract the offset from the time, which is (non-leap) nanoseconds 
+     * since 1970-01-01T00:00Z, giving the same time as subtract(int[],int[]) 
+     * does for the seven-component time.
+     * @param nanos the number of non-leap-second nanoseconds since 1970-01-01T00:00Z.
+     * @param offset offset in each component.
+     * @return the number of non-leap-second nanoseconds since 1970-01-01T00:00Z.
+     * @see #subtract(int[], int[]) 
+     */
+    public static long subtract( long nanos, int[] offset ) {
+        return addComponents( nanos, offset, -1 );
+    }
+    
+    /**
+     * add sign times the offset to the time.
+     */
+    private static long addComponents( long nanos, int[] offset, int sign ) {
+        long days= Math.floorDiv( nanos, NANOSECONDS_PER_DAY );
+        long nanosOfDay= nanos - days * NANOSECONDS_PER_DAY;
+        if ( offset[0]!=0 || offset[1]!=0 ) {
+            int ymd= packedDateFromJulianDay( (int)days + JULIAN_DAY_1970 );
+            long months= ( ymd / 10000 ) * 12L + ( ymd / 100 % 100 - 1 ) + sign * ( offset[0] * 12L + offset[1] );
+            int year= (int)Math.floorDiv( months, 12L );
+            int month= (int)Math.floorMod( months, 12L ) + 1;
+            days= julianDay( year, month, 1 ) - JULIAN_DAY_1970 + ( ymd % 100 - 1 );
+        }
+        days+= sign * (long)offset[2];
+        return days * NANOSECONDS_PER_DAY + nanosOfDay 
+                + sign * ( offset[3] * 3600000000000L + offset[4] * 60000000000L + offset[5] * 1000000000L + offset[6] );
+    }
+
+    /**
+     * style for formatIso8601Time writing "1999-12-31T23:00:00.000000000Z"
+     */
+    public static final int ISO8601_FULL= 0;
+    
+    /**
+     * style for formatIso8601Time writing "1999-12-31T23:00Z", omitting trailing 
+     * zeros as formatIso8601TimeBrief does.
+     */
+    public static final int ISO8601_BRIEF= 1;
+    
+    /**
+     * style for formatIso8601Time writing "1999-365T23:00:00.000000000Z"
+     */
+    public static final int ISO8601_DAY_OF_YEAR= 2;
+    
+    /**
+     * style for formatIso8601Time writing "1999-12-31Z"
+     */
+    public static final int ISO8601_DATE= 3;
+    
+    /**
+     * style for formatIso8601Time writing "1999-365Z"
+     */
+    public static final int ISO8601_DAY_OF_YEAR_DATE= 4;
+    
+    /**
+     * the most characters written by formatIso8601Time, which is 30 when the
+     * components are within their usual ranges, and 84 when each is an eleven
+     * character integer like -2147483648.
+     */
+    private static final int ISO8601_MAX_LENGTH= 84;
+    
+    private static final int[] POWERS_OF_TEN= { 1, 10, 100, 1000, 10000, 100000, 
+        1000000, 10000000, 100000000, 1000000000 };
+    
+    private static final char[] DIGIT_TENS= new char[100];
+    private static final char[] DIGIT_ONES= new char[100];
+    
+    static {
+        for ( int i=0; i<100; i++ ) {
+            DIGIT_TENS[i]= (char)( '0' + i/10 );
+            DIGIT_ONES[i]= (char)( '0' + i%10 );
+        }
+    }
+    
+    /**
+     * write the value padded with zeros to width digits, two digits at a time.  
+     * Values which do not fit, or are negative, are written as String.format("%0"+width+"d") does.
+     * @param cbuf the characters to write, or null when writing bytes.
+     * @param bbuf the bytes to write, as US-ASCII, when cbuf is null.
+     * @return the index following the last character written.
+     */
+    private static int writeDigits( char[] cbuf, byte[] bbuf, int pos, int value, int width ) {
+        if ( value<0 || value>=POWERS_OF_TEN[width] ) {
+            String s= String.format( "%0" + width + "d", value );
+            for ( int j=0; j<s.length(); j++ ) {
+                pos= write( cbuf, bbuf, pos, s.charAt(j) );
+            }
+            return pos;
+        }
+        int i= pos + width;
+        while ( i-pos>=2 ) {
+            int r= value % 100;
+            value= value / 100;
+            i-= 2;
+            if ( cbuf!=null ) {
+                cbuf[i+1]= DIGIT_ONES[r];
+                cbuf[i]= DIGIT_TENS[r];
+            } else {
+                bbuf[i+1]= (byte)DIGIT_ONES[r];
+                bbuf[i]= (byte)DIGIT_TENS[r];
+            }
+        }
+        if ( i>pos ) {
+            write( cbuf, bbuf, i-1, (char)( '0' + value ) );
+        }
+        return pos + width;
+    }
+    
+    /**
+     * write the character into the characters, or into the bytes when cbuf is null.
+     * @return the index following the character.
+     */
+    private static int write( char[] cbuf, byte[] bbuf, int pos, char c ) {
+        if ( cbuf!=null ) {
+            cbuf[pos]= c;
+        } else {
+            bbuf[pos]= (byte)c;
+        }
+        return pos+1;
+    }
+    
+    /**
+     * write the time without the trailing Z.
+     * @param fields 3 for the date, 5 to minutes, 6 to seconds, or 7 for the fractional seconds.
+     * @param fractionDigits 3, 6 or 9 digits of fractional seconds, when fields is 7.
+     * @param cbuf the characters to write, or null when writing bytes.
+     * @param bbuf the bytes to write, as US-ASCII, when cbuf is null.
+     * @return the index following the last character written.
+     */
+    private static int writeIsoTime( int[] time, int offset, boolean dayOfYear, int fields, int fractionDigits, char[] cbuf, byte[] bbuf, int pos ) {
+        int year= time[offset];
+        int month= time[offset+1];
+        int day= time[offset+2];
+        pos= writeDigits( cbuf, bbuf, pos, year, 4 );
+        pos= write( cbuf, bbuf, pos, '-' );
+        if ( dayOfYear ) {
+            pos= writeDigits( cbuf, bbuf, pos, dayOfYear( year, month, day ), 3 );
+        } else {
+            if ( month==1 && day>31 ) {
+                month= monthForDayOfYear( year, day );
+                day= day - dayOfYear( year, month, 1 ) + 1;
+            }
+            pos= writeDigits( cbuf, bbuf, pos, month, 2 );
+            pos= write( cbuf, bbuf, pos, '-' );
+            pos= writeDigits( cbuf, bbuf, pos, day, 2 );
+        }
+        if ( fields==3 ) {
+            return pos;
+        }
+        pos= write( cbuf, bbuf, pos, 'T' );
+        pos= writeDigits( cbuf, bbuf, pos, time[offset+3], 2 );
+        pos= write( cbuf, bbuf, pos, ':' );
+        pos= writeDigits( cbuf, bbuf, pos, time[offset+4], 2 );
+        if ( fields==5 ) {
+            return pos;
+        }
+        pos= write( cbuf, bbuf, pos, ':' );
+        pos= writeDigits( cbuf, bbuf, pos, time[offset+5], 2 );
+        if ( fields==6 ) {
+            return pos;
+        }
+        pos= write( cbuf, bbuf, pos, '.' );
+        int nanos= time[offset+6];
+        if ( fractionDigits==9 || nanos<0 || nanos>=1000000000 ) {
+            return writeDigits( cbuf, bbuf, pos, nanos, 9 );
+        } else {
+            return writeDigits( cbuf, bbuf, pos, nanos / POWERS_OF_TEN[9-fractionDigits], fractionDigits );
+        }
+    }
+    
+    /**
+     * write the seven-component time at the offset into the characters, 
+     * using a table of digits rather than String.format.  For example,
+     * {@code formatIso8601Time( new int[] { 1999, 12, 31, 23, 0, 0, 0 }, 0, ISO8601_FULL, buf, 0 ) }
+     * writes "1999-12-31T23:00:00.000000000Z" and returns 30.
+     * @param time the time, or a time range
+     * @param offset the index of the year, 0, or 7 for the stop time of a time range.
+     * @param style ISO8601_FULL, ISO8601_BRIEF, ISO8601_DAY_OF_YEAR, ISO8601_DATE or ISO8601_DAY_OF_YEAR_DATE
+     * @param buf the characters, which must have room for 30 characters after pos.
+     * @param pos the index of the first character to write.
+     * @return the index following the last character written.
+     * @see #isoTimeFromArray(int[]) 
+     */
+    public static int formatIso8601Time( int[] time, int offset, int style, char[] buf, int pos ) {
+        return formatIso8601Time( time, offset, style, buf, null, pos );
+    }
+    
+    /**
+     * write the time into the characters, or into the bytes when cbuf is null.
+     * @see #formatIso8601Time(int[], int, int, char[], int) 
+     */
+    private static int formatIso8601Time( int[] time, int offset, int style, char[] cbuf, byte[] bbuf, int pos ) {
+        switch ( style ) {
+            case ISO8601_FULL:
+                pos= writeIsoTime( time, offset, false, 7, 9, cbuf, bbuf, pos );
+                break;
+            case ISO8601_BRIEF:
+                int nanos= time[offset+6];
+                int micros= nanos % 1000;
+                int millis= nanos % 10000000;
+                if ( nanos==0 ) {
+                    pos= writeIsoTime( time, offset, false, time[offset+5]==0 ? 5 : 6, 0, cbuf, bbuf, pos );
+                } else {
+                    pos= writeIsoTime( time, offset, false, 7, millis==0 ? 3 : ( micros==0 ? 6 : 9 ), cbuf, bbuf, pos );
+                }
+                break;
+            case ISO8601_DAY_OF_YEAR:
+                pos= writeIsoTime( time, offset, true, 7, 9, cbuf, bbuf, pos );
+                break;
+            case ISO8601_DATE:
+                pos= writeIsoTime( time, offset, false, 3, 0, cbuf, bbuf, pos );
+                break;
+            case ISO8601_DAY_OF_YEAR_DATE:
+                pos= writeIsoTime( time, offset, true, 3, 0, cbuf, bbuf, pos );
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported style: "+style);
+        }
+        return write( cbuf, bbuf, pos, 'Z' );
+    }
+    
+    /**
+     * write the seven-component time at the offset into the bytes, as US-ASCII.
+     * @param time the time, or a time range
+     * @param offset the index of the year, 0, or 7 for the stop time of a time range.
+     * @param style ISO8601_FULL, ISO8601_BRIEF, ISO8601_DAY_OF_YEAR, ISO8601_DATE or ISO8601_DAY_OF_YEAR_DATE
+     * @param buf the bytes, which must have room for 30 bytes after pos.
+     * @param pos the index of the first byte to write.
+     * @return the index following the last byte written.
+     * @see #formatIso8601Time(int[], int, int, char[], int) 
+     */
+    public static int formatIso8601Time( int[] time, int offset, int style, byte[] buf, int pos ) {
+        return formatIso8601Time( time, offset, style, null, buf, pos );
+    }
+    
+    /**
+     * append the seven-component time at the offset to the StringBuilder.
+     * @param time the time, or a time range
+     * @param offset the index of the year, 0, or 7 for the stop time of a time range.
+     * @param style ISO8601_FULL, ISO8601_BRIEF, ISO8601_DAY_OF_YEAR, ISO8601_DATE or ISO8601_DAY_OF_YEAR_DATE
+     * @param sb the StringBuilder
+     * @return the StringBuilder
+     * @see #formatIso8601Time(int[], int, int, char[], int) 
+     */
+    public static StringBuilder formatIso8601Time( int[] time, int offset, int style, StringBuilder sb ) {
+        char[] cc= isoTimeChars.get();
+        int n= formatIso8601Time( time, offset, style, cc, null, 0 );
+        return sb.append( cc, 0, n );
+    }
+    
+    /**
+     * characters in which each thread formats times appended to a StringBuilder, 
+     * which has no way to be written in place.
+     */
+    private static final ThreadLocal<char[]> isoTimeChars= ThreadLocal.withInitial( () -> new char[ISO8601_MAX_LENGTH] );
+    
+    /**
+     * return the seven-component time at the offset formatted in the style.
+     * @param time the time, or a time range
+     * @param offset the index of the year, 0, or 7 for the stop time of a time range.
+     * @param style ISO8601_FULL, ISO8601_BRIEF, ISO8601_DAY_OF_YEAR, ISO8601_DATE or ISO8601_DAY_OF_YEAR_DATE
+     * @return the formatted time, like "1999-12-31T23:00:00.000000000Z"
+     * @see #formatIso8601Time(int[], int, int, char[], int) 
+     */
+    public static String formatIso8601Time( int[] time, int offset, int style ) {
+        char[] cc= new char[ISO8601_MAX_LENGTH];
+        int n= formatIso8601Time( time, offset, style, cc, 0 );
+        return new String( cc, 0, n );
+    }
+
     /**
      * return the array formatted as ISO8601 time, formatted to nanoseconds.
      * For example,  int[] nn = new int[] { 1999, 12, 31, 23, 0, 0, 0  } is
@@ -518,8 +1106,7 @@ public class TimeUtil {
             nn[2]= nn[2]-dom1+1;
             nn[1]= month;
         }
-        return String.format("%04d-%02d-%02dT%02d:%02d:%02d.%09dZ",
-                nn[0], nn[1], nn[2], nn[3], nn[4], nn[5], nn[6]);
+        return formatIso8601Time( nn, 0, ISO8601_FULL );
     }
 
     /**
@@ -528,26 +1115,22 @@ public class TimeUtil {
      * @return efficient representation of the time range
      */
     public static String formatIso8601TimeRange( int[] timerange ) {
-        String ss1= formatIso8601TimeInTimeRange(timerange, 0);
-        String ss2= formatIso8601TimeInTimeRange(timerange, TIME_DIGITS);
         int firstNonZeroDigit=7;
         while ( firstNonZeroDigit>3 && timerange[firstNonZeroDigit-1]==0 && timerange[firstNonZeroDigit+TIME_DIGITS-1]==0 ) {
             firstNonZeroDigit -= 1;
         }
-        switch (firstNonZeroDigit) {
-            case 2:
-                return ss1.substring(0,10) + "/" + ss2.substring(0,10);
-            case 3:
-                return ss1.substring(0,10) + "/" + ss2.substring(0,10);
-            case 4:
-                return ss1.substring(0,16) + "Z/" + ss2.substring(0,16) + "Z";
-            case 5:
-                return ss1.substring(0,16) + "Z/" + ss2.substring(0,16) + "Z";
-            case 6:
-                return ss1.substring(0,19) + "Z/" + ss2.substring(0,19) + "Z";
-            default:
-                return ss1 + "/" + ss2;
+        int fields= firstNonZeroDigit==4 ? 5 : firstNonZeroDigit;
+        char[] buf= new char[ 2*ISO8601_MAX_LENGTH+1 ];
+        int pos= writeIsoTime( timerange, 0, false, fields, 9, buf, null, 0 );
+        if ( fields>3 ) {
+            buf[pos++]= 'Z';
+        }
+        buf[pos++]= '/';
+        pos= writeIsoTime( timerange, TIME_DIGITS, false, fields, 9, buf, null, pos );
+        if ( fields>3 ) {
+            buf[pos++]= 'Z';
         }
+        return new String( buf, 0, pos );
     }
     
     /**
@@ -576,8 +1159,7 @@ public class TimeUtil {
             case 0:
                 return isoTimeFromArray( nn );
             case 7:
-                int[] copy = getStopTime(nn);
-                return isoTimeFromArray( copy );
+                return formatIso8601Time( nn, 7, ISO8601_FULL );
             default:
                 throw new IllegalArgumentException( "offset must be 0 or 7");
         }
@@ -741,8 +1323,7 @@ public class TimeUtil {
                 n= now();
                 remainder= time.substring(3);
             } else {
-                Pattern p= Pattern.compile("last([a-z]+)([\\+|\\-]P.*)?");
-                Matcher m= p.matcher(time);
+                Matcher m= LAST_TIME_PATTERN.matcher(time);
                 if ( m.matches() ) {
                     n= now();
                     String unit= m.group(1);
@@ -798,80 +1379,162 @@ public class TimeUtil {
             return now();
             
         } else {
-            if (time.length() < 7) {
-                throw new IllegalArgumentException("time must have 4 or greater than 7 characters");
+            result= new int[TIME_DIGITS];
+            parseISO8601Time( time, 0, time.length(), result, 0 );
+        }
+        return result;
+    }
+    
+    private static final Pattern LAST_TIME_PATTERN= Pattern.compile("last([a-z]+)([\\+|\\-]P.*)?");
+    
+    /**
+     * return the integer in the characters, which must all be digits.
+     * @param s the characters
+     * @param start the index of the first digit
+     * @param end the index following the last digit
+     * @return the integer
+     * @throws IllegalArgumentException when a character is not a digit.
+     */
+    private static int parseInteger( CharSequence s, int start, int end ) {
+        int result= 0;
+        for ( int i=start; i<end; i++ ) {
+            char c= s.charAt(i);
+            if ( c<'0' || c>'9' ) {
+                throw new IllegalArgumentException("only digits are allowed in string");
             }
-            if ( Character.isDigit(time.charAt(4)) && Character.isDigit(time.charAt(5)) ) {
-                throw new IllegalArgumentException("date and time must contain delimiters between fields");
+            result= 10 * result + ( c - '0' );
+        }
+        return result;
+    }
+    
+    private static boolean startsWith( CharSequence s, int start, int end, String prefix ) {
+        if ( end-start<prefix.length() ) {
+            return false;
+        }
+        for ( int i=0; i<prefix.length(); i++ ) {
+            if ( s.charAt(start+i)!=prefix.charAt(i) ) {
+                return false;
             }
-            // first, parse YMD part, and leave remaining components in time.
-            if ( time.length()==7 ) {
-                if ( time.charAt(4)=='W' ) { // 2022W08
-                    int year= parseInteger(time.substring(0, 4));
-                    int week= parseInteger(time.substring(5));
-                    result= new int[] { year, 0, 0, 0, 0, 0, 0 };
-                    fromWeekOfYear( year, week, result );
-                    time= "";
-                } else {
-                    result = new int[]{ parseInteger(time.substring(0, 4)), parseInteger(time.substring(5, 7)), 1, // days
-                        0, 0, 0, 0 };
-                    time = "";
-                }
-            } else if (time.length() == 8) {
-                if ( time.charAt(5)=='W' ) { // 2022-W08
-                    int year= parseInteger(time.substring(0, 4));
-                    int week= parseInteger(time.substring(6));
-                    result= new int[] { year, 0, 0, 0, 0, 0, 0 };
-                    fromWeekOfYear( year, week, result );
-                    time= "";
-                } else {
-                    result = new int[]{parseInteger(time.substring(0, 4)), 1, parseInteger(time.substring(5, 8)), // days
-                        0, 0, 0, 0};
-                    time = "";
-                }
-            } else if (time.charAt(8) == 'T') {
-                if ( Character.isDigit(time.charAt(4)) ) {
-                    result = new int[]{
-                        parseInteger(time.substring(0, 4)), parseInteger(time.substring(4,6)), parseInteger(time.substring(6,8)), 
-                        0, 0, 0, 0};
-                    time = time.substring(9);
-                } else {
-                    result = new int[]{parseInteger(time.substring(0, 4)), 1, parseInteger(time.substring(5, 8)), // days
-                        0, 0, 0, 0};
-                    time = time.substring(9);
-                }
-            } else if (time.charAt(8) == 'Z') {
-                result = new int[]{parseInteger(time.substring(0, 4)), 1, parseInteger(time.substring(5, 8)), // days
-                    0, 0, 0, 0};
-                time = time.substring(9);
+        }
+        return true;
+    }
+    
+    /**
+     * parse the ISO8601 time in the characters from start to end, putting the 
+     * seven components into the array at the offset.  This accepts the 
+     * same times as isoTimeToArray, and reads each character once, without 
+     * creating strings, except for the rarely used forms like now-P1D and 2022-W08.  
+     * Fractional seconds are truncated to nanoseconds.
+     * @param time the characters, such as a String or a CharBuffer.
+     * @param start the index of the first character of the time
+     * @param end the index following the last character of the time
+     * @param result the array for the seven-component time [ Y, m, d, H, M, S, N ]
+     * @param offset the index of the year in result, typically 0 or 7.
+     * @throws IllegalArgumentException when the time cannot be parsed.
+     * @see #isoTimeToArray(java.lang.String) 
+     */
+    public static void parseISO8601Time( CharSequence time, int start, int end, int[] result, int offset ) {
+        int length= end-start;
+        if ( startsWith( time, start, end, "now" ) || startsWith( time, start, end, "last" ) ) {
+            int[] n= isoTimeToArray( time.subSequence( start, end ).toString() );
+            System.arraycopy( n, 0, result, offset, TIME_DIGITS );
+            return;
+        }
+        if ( length==4 ) {
+            result[offset]= parseInteger( time, start, end );
+            result[offset+1]= 1;
+            result[offset+2]= 1;
+            result[offset+3]= 0;
+            result[offset+4]= 0;
+            result[offset+5]= 0;
+            result[offset+6]= 0;
+            return;
+        }
+        if ( length < 7 ) {
+            throw new IllegalArgumentException("time must have 4 or greater than 7 characters");
+        }
+        char c4= time.charAt(start+4);
+        char c5= time.charAt(start+5);
+        if ( Character.isDigit(c4) && Character.isDigit(c5) ) {
+            throw new IllegalArgumentException("date and time must contain delimiters between fields");
+        }
+        int year= parseInteger( time, start, start+4 );
+        int month;
+        int day;
+        int hms; // the index of the hours
+        if ( length==7 || length==8 ) {
+            if ( ( length==7 && c4=='W' ) || ( length==8 && c5=='W' ) ) { // 2022W08 or 2022-W08
+                int week= parseInteger( time, start+length-2, end );
+                int[] w= new int[] { year, 0, 0, 0, 0, 0, 0 };
+                fromWeekOfYear( year, week, w );
+                normalizeTime( w );
+                System.arraycopy( w, 0, result, offset, TIME_DIGITS );
+                return;
+            } else if ( length==7 ) {
+                month= parseInteger( time, start+5, start+7 );
+                day= 1;
             } else {
-                result = new int[]{
-                    parseInteger(time.substring(0, 4)), parseInteger(time.substring(5, 7)), parseInteger(time.substring(8, 10)), 0, 0, 0, 0};
-                if (time.length() == 10) {
-                    time = "";
-                } else {
-                    time = time.substring(11);
-                }
+                month= 1;
+                day= parseInteger( time, start+5, start+8 );
             }
-            // second, parse HMS part.
-            if (time.endsWith("Z")) {
-                time = time.substring(0, time.length() - 1);
-            }
-            if (time.length() >= 2) {
-                result[3] = parseInteger(time.substring(0, 2));
-            }
-            if (time.length() >= 5) {
-                result[4] = parseInteger(time.substring(3, 5));
+            hms= end;
+        } else {
+            char c8= time.charAt(start+8);
+            if ( c8=='T' && Character.isDigit(c4) ) {
+                month= parseInteger( time, start+4, start+6 );
+                day= parseInteger( time, start+6, start+8 );
+                hms= start+9;
+            } else if ( c8=='T' || c8=='Z' ) {
+                month= 1;
+                day= parseInteger( time, start+5, start+8 );
+                hms= start+9;
+            } else {
+                if ( length<10 ) {
+                    throw new IllegalArgumentException("time must have 4, 7, 8, or at least 10 characters");
+                }
+                month= parseInteger( time, start+5, start+7 );
+                day= parseInteger( time, start+8, start+10 );
+                hms= length==10 ? end : start+11;
             }
-            if (time.length() >= 8) {
-                result[5] = parseInteger(time.substring(6, 8));
+        }
+        // second, parse HMS part.
+        int e= end;
+        if ( e>hms && time.charAt(e-1)=='Z' ) {
+            e--;
+        }
+        int n= e-hms;
+        int hour= n>=2 ? parseInteger( time, hms, hms+2 ) : 0;
+        int minute= n>=5 ? parseInteger( time, hms+3, hms+5 ) : 0;
+        int second= n>=8 ? parseInteger( time, hms+6, hms+8 ) : 0;
+        int nanos= 0;
+        if ( n>9 ) {
+            int digits= 0;
+            for ( int i=hms+9; i<e; i++ ) {
+                char c= time.charAt(i);
+                if ( c<'0' || c>'9' ) {
+                    throw new IllegalArgumentException("only digits are allowed in string");
+                }
+                if ( digits<9 ) {
+                    nanos= 10 * nanos + ( c - '0' );
+                    digits++;
+                }
             }
-            if (time.length() > 9) {
-                result[6] = (int) (Math.pow(10, 18 - time.length())) * parseInteger(time.substring(9));
+            for ( ; digits<9; digits++ ) {
+                nanos= 10 * nanos;
             }
-            normalizeTime(result);
         }
-        return result;
+        result[offset]= year;
+        result[offset+1]= month;
+        result[offset+2]= day;
+        result[offset+3]= hour;
+        result[offset+4]= minute;
+        result[offset+5]= second;
+        result[offset+6]= nanos;
+        if ( month<1 || month>12 || day<1 || day>28 || hour>23 || minute>59 || second>59 ) {
+            normalizeTime( result, offset ); // which also checks the year.
+        } else if ( year < URITemplate.MIN_VALID_YEAR || year > URITemplate.MAX_VALID_YEAR ) {
+            throw new IllegalArgumentException(YEAR_RANGE_MESSAGE);
+        }
     }
 
     /**
@@ -886,10 +1549,9 @@ public class TimeUtil {
      * This works by looking at the character in the 8th position (starting with zero) of the 
      * exampleForm to see if a T or Z is present (YYYY-jjjTxxx).
      *
-     * TODO: there's
-     * an optimization here, where if input and output are both $Y-$j or both
-     * $Y-$m-$d, then we need not break apart and recombine the time
-     * (isoTimeToArray call can be avoided).
+     * When the time already has the layout of exampleForm, with each field
+     * within its usual range, the characters are copied without breaking
+     * apart and recombining the time.
      *
      * @param exampleForm isoTime string.
      * @param time the time in any allowed isoTime format
@@ -897,18 +1559,14 @@ public class TimeUtil {
      */
     public static String reformatIsoTime(String exampleForm, String time) {
         char c = exampleForm.charAt(8);
-        int[] nn = TimeUtil.isoTimeToArray(TimeUtil.normalizeTimeString(time));
+        int style;
         switch (c) {
             case 'T':
                 // $Y-$jT
-                nn[2] = TimeUtil.dayOfYear(nn[0], nn[1], nn[2]);
-                nn[1] = 1;
-                time = String.format("%d-%03dT%02d:%02d:%02d.%09dZ", nn[0], nn[2], nn[3], nn[4], nn[5], nn[6]);
+                style= ISO8601_DAY_OF_YEAR;
                 break;
             case 'Z':
-                nn[2] = TimeUtil.dayOfYear(nn[0], nn[1], nn[2]);
-                nn[1] = 1;
-                time = String.format("%d-%03dZ", nn[0], nn[2]);
+                style= ISO8601_DAY_OF_YEAR_DATE;
                 break;
             default:
                 if (exampleForm.length() == 10) {
@@ -917,20 +1575,96 @@ public class TimeUtil {
                     c = exampleForm.charAt(10);
                 }
                 if (c == 'T') {
-                    // $Y-$jT
-                    time = String.format("%d-%02d-%02dT%02d:%02d:%02d.%09dZ", nn[0], nn[1], nn[2], nn[3], nn[4], nn[5], nn[6]);
+                    style= ISO8601_FULL;
                 } else if (c == 'Z') {
-                    time = String.format("%d-%02d-%02dZ", nn[0], nn[1], nn[2]);
+                    style= ISO8601_DATE;
+                } else {
+                    style= -1;
                 }
                 break;
         }
+        int length= exampleForm.endsWith("Z") ? exampleForm.length() - 1 : exampleForm.length();
+        char[] buf= new char[ISO8601_MAX_LENGTH+1];
+        int n= style==-1 ? -1 : copyIsoTime( time, style, buf );
+        if ( n==-1 ) {
+            int[] nn = TimeUtil.isoTimeToArray(TimeUtil.normalizeTimeString(time));
+            if ( style!=-1 ) {
+                n= formatIso8601Time( nn, 0, style, buf, 0 );
+            } else {
+                n= time.length();
+                time.getChars( 0, n, buf, 0 );
+            }
+        }
+        if ( length>n ) {
+            throw new StringIndexOutOfBoundsException( length );
+        }
         if (exampleForm.endsWith("Z")) {
-            return time.substring(0, exampleForm.length() - 1) + "Z";
+            buf[length]= 'Z';
+            return new String( buf, 0, length+1 );
         } else {
-            return time.substring(0, exampleForm.length());
+            return new String( buf, 0, length );
         }
     }
     
+    /**
+     * the layouts of completely formatted times, which supply the zeros of 
+     * components omitted from a time.
+     */
+    private static final String ISO8601_LAYOUT= "0000-00-00T00:00:00.000000000Z";
+    private static final String ISO8601_DAY_OF_YEAR_LAYOUT= "0000-000T00:00:00.000000000Z";
+    
+    /**
+     * copy the time into buf as it would be formatted in the style, when it is
+     * already laid out for the style, like 2020-04-21T00:00Z for ISO8601_FULL, and 
+     * no component needs to be normalized.  Missing components are filled with zeros. 
+     * @param time the time in any allowed isoTime format
+     * @param style ISO8601_FULL, ISO8601_DAY_OF_YEAR, ISO8601_DATE or ISO8601_DAY_OF_YEAR_DATE
+     * @param buf the characters
+     * @return the number of characters, or -1 when the time must be parsed.
+     */
+    private static int copyIsoTime( String time, int style, char[] buf ) {
+        boolean dayOfYear= style==ISO8601_DAY_OF_YEAR || style==ISO8601_DAY_OF_YEAR_DATE;
+        String layout= dayOfYear ? ISO8601_DAY_OF_YEAR_LAYOUT : ISO8601_LAYOUT;
+        int dateLength= dayOfYear ? 8 : 10;
+        int n= time.length();
+        if ( n>0 && time.charAt(n-1)=='Z' ) {
+            n--;
+        }
+        // the time must stop after a date, hours, minutes, seconds or a fraction digit.
+        if ( n<dateLength || n>=layout.length() 
+                || ( n<dateLength+9 ? ( n-dateLength ) % 3 != 0 : n==dateLength+10 ) ) {
+            return -1;
+        }
+        for ( int i=0; i<n; i++ ) {
+            char ch= time.charAt(i);
+            char l= layout.charAt(i);
+            if ( l=='0' ? ( ch<'0' || ch>'9' ) : ch!=l ) {
+                return -1;
+            }
+        }
+        if ( dayOfYear ) {
+            int doy= parseInteger( time, 5, 8 );
+            if ( doy<1 || doy>365 ) return -1;
+        } else {
+            int month= parseInteger( time, 5, 7 );
+            int day= parseInteger( time, 8, 10 );
+            if ( month<1 || month>12 || day<1 || day>28 ) return -1;
+        }
+        if ( n>dateLength && ( parseInteger( time, dateLength+1, dateLength+3 )>23
+                || ( n>dateLength+3 && parseInteger( time, dateLength+4, dateLength+6 )>59 )
+                || ( n>dateLength+6 && parseInteger( time, dateLength+7, dateLength+9 )>59 ) ) ) {
+            return -1;
+        }
+        int length= style==ISO8601_DATE || style==ISO8601_DAY_OF_YEAR_DATE ? dateLength : layout.length()-1;
+        if ( n>length ) {
+            n= length;
+        }
+        time.getChars( 0, n, buf, 0 );
+        layout.getChars( n, length, buf, n );
+        buf[length]= 'Z';
+        return length+1;
+    }
+    
     public static int VALID_FIRST_YEAR=1900;
     public static int VALID_LAST_YEAR=2100;
     
@@ -982,99 +1716,86 @@ public class TimeUtil {
      * <li>handle day=32 by incrementing month.
      * <li>handle negative components by borrowing from the next significant.
      * </ul>
+     * Each component is carried with one division, and days are counted 
+     * using the Julian day, so that [2000,1,3000,0,0,0,0] takes no longer 
+     * than [2000,1,32,0,0,0,0].
      * Note that [Y,1,dayOfYear,...] is accepted, but the result will be Y,m,d.
      * @param time the seven-component time Y,m,d,H,M,S,nanoseconds
      */
     public static void normalizeTime(int[] time) {
-        while ( time[6]>=1000000000 ) {
-            time[5] += 1;
-            time[6] -= 1000000000;
-        }
-        while ( time[5]>59 ) { // TODO: leap seconds?
-            time[4]+= 1;
-            time[5]-= 60;
-        }
-        while ( time[4]>59 ) {
-            time[3]+= 1;
-            time[4]-= 60;
-        }        
-        while (time[3] >= 24) {
-            time[2] += 1;
-            time[3] -= 24;
-        }
-        if (time[6] < 0) {
-            time[5] -= 1;
-            time[6] += 1000000000;
-        }
-        if (time[5] < 0) {
-            time[4] -= 1; // take a minute
-            time[5] += 60; // add 60 seconds.
-        }
-        if (time[4] < 0) {
-            time[3] -= 1; // take an hour
-            time[4] += 60; // add 60 minutes
-        }
-        if (time[3] < 0) {
-            time[2] -= 1; // take a day
-            time[3] += 24; // add 24 hours
-        }
-        if (time[2] < 1) {
-            time[1] -= 1; // take a month
-            final int daysInMonth;
-            if ( time[1] == 0 ) { 
-                daysInMonth = 31;
-            } else {
-                if ( isLeapYear(time[0]) ) { // This was  TimeUtil.DAYS_IN_MONTH[isLeapYear(time[0]) ? 1 : 0][time[1]] . TODO: review!
-                    daysInMonth = TimeUtil.DAYS_IN_MONTH[1][time[1]];
-                } else {
-                    daysInMonth = TimeUtil.DAYS_IN_MONTH[0][time[1]];
-                }
-            }
-            time[2] += daysInMonth; // add 24 hours
-        }
-        if (time[1] < 1) {
-            time[0] -= 1; // take a year
-            time[1] += 12; // add 12 months
-        }
-        if (time[3] > 24) {
-            throw new IllegalArgumentException("time[3] is greater than 24 (hours)");
-        }
-        if (time[1] > 12) {
-            time[0] += 1;
-            time[1] -= 12;
-        }
-        if (time[1] == 12 && time[2]>31 && time[2]<62 ) {
-            time[0] += 1;
-            time[1] = 1;
-            time[2] -= 31;
-            return;
-        }
-        int leap = isLeapYear(time[0]) ? 1 : 0;
-        if (time[2] == 0) { //TODO: tests don't hit this branch, and I'm not sure it can occur.
-            time[1] -= 1;
-            if (time[1] == 0) {
-                time[0] -= 1;
-                time[1] = 12;
-            }
-            time[2] = TimeUtil.DAYS_IN_MONTH[leap][time[1]];
-        }
-        int d = TimeUtil.DAYS_IN_MONTH[leap][time[1]];
-        while (time[2] > d) {
-            time[1] += 1;
-            time[2] -= d;
-            if ( time[1]>12 ) {
-                time[0]+=1;
-                time[1]-=12;
+        normalizeTime( time, 0 );
+    }
+
+    /**
+     * the message of the exception thrown for a year outside of the valid range.
+     */
+    private static final String YEAR_RANGE_MESSAGE= "year must be between " 
+            + URITemplate.MIN_VALID_YEAR + " and " + URITemplate.MAX_VALID_YEAR;
+    
+    /**
+     * normalize the seven-component time found at the offset within the array,
+     * so that a time range can be normalized in place.  For example, offset
+     * 7 is used to normalize the stop time of a 14-component time range.
+     * @param time an array containing the seven-component time
+     * @param offset the index of the year component, typically 0 or 7.
+     * @see #normalizeTime(int[]) 
+     */
+    public static void normalizeTime( int[] time, int offset ) {
+        int year= time[offset];
+        int month= time[offset+1];
+        int day= time[offset+2];
+        int hour= time[offset+3];
+        int minute= time[offset+4];
+        int second= time[offset+5];
+        int nanos= time[offset+6];
+        // carry or borrow each component with one division, however far out of range it is.
+        if ( nanos<0 || nanos>=1000000000 ) {
+            second+= Math.floorDiv( nanos, 1000000000 );
+            nanos= Math.floorMod( nanos, 1000000000 );
+        }
+        if ( second<0 || second>59 ) { // TODO: leap seconds?
+            minute+= Math.floorDiv( second, 60 );
+            second= Math.floorMod( second, 60 );
+        }
+        if ( minute<0 || minute>59 ) {
+            hour+= Math.floorDiv( minute, 60 );
+            minute= Math.floorMod( minute, 60 );
+        }
+        if ( hour<0 || hour>23 ) {
+            day+= Math.floorDiv( hour, 24 );
+            hour= Math.floorMod( hour, 24 );
+        }
+        if ( month<1 || month>12 ) {
+            year+= Math.floorDiv( month-1, 12 );
+            month= Math.floorMod( month-1, 12 ) + 1;
+        }
+        if ( day<1 || day>28 ) { // count days from the first of the month, which handles [Y,1,dayOfYear].
+            long julian= gregorianJulianDay( year, month, 1 ) + day - 1;
+            if ( julian<JANUARY_FIRST_JULIAN_DAY[0] || julian>=JANUARY_FIRST_JULIAN_DAY[JANUARY_FIRST_JULIAN_DAY.length-1] ) {
+                throw new IllegalArgumentException(YEAR_RANGE_MESSAGE);
             }
-            d = TimeUtil.DAYS_IN_MONTH[leap][time[1]];
-        }
+            int packed= packedDateFromJulianDay( (int)julian );
+            year= packed / 10000;
+            month= packed / 100 % 100;
+            day= packed % 100;
+        }
+        if ( year < URITemplate.MIN_VALID_YEAR || year > URITemplate.MAX_VALID_YEAR ) { // URITemplate.tryParse relies on this limit.
+            throw new IllegalArgumentException(YEAR_RANGE_MESSAGE);
+        }
+        time[offset]= year;
+        time[offset+1]= month;
+        time[offset+2]= day;
+        time[offset+3]= hour;
+        time[offset+4]= minute;
+        time[offset+5]= second;
+        time[offset+6]= nanos;
     }
     
     /**
      * return the julianDay for the year month and day. This was verified
      * against another calculation (julianDayWP, commented out above) from
      * http://en.wikipedia.org/wiki/Julian_day. Both calculations have 20
-     * operations.
+     * operations.  Years through 9000 are looked up in a table instead.
      *
      * @param year calendar year greater than 1582.
      * @param month the month number 1 through 12.
@@ -1086,7 +1807,21 @@ public class TimeUtil {
         if (year <= 1582) {
             throw new IllegalArgumentException("year must be more than 1582");
         }
-        int jd = 367 * year - 7 * (year + (month + 9) / 12) / 4
+        if ( year <= TABLE_LAST_YEAR && month >= 1 && month <= 12 ) {
+            int i= year - TABLE_FIRST_YEAR;
+            int jan1= JANUARY_FIRST_JULIAN_DAY[i];
+            int leap= JANUARY_FIRST_JULIAN_DAY[i+1] - jan1 - 365;
+            return jan1 + DAY_OFFSET[leap][month] + day - 1;
+        }
+        return (int)gregorianJulianDay( year, month, day );
+    }
+    
+    /**
+     * return the Julian day using the Gregorian calendar for all years, 
+     * which is julianDay without the check of the year.
+     */
+    private static long gregorianJulianDay( int year, int month, int day ) {
+        long jd = 367L * year - 7 * (year + (month + 9) / 12) / 4
                 - 3 * ((year + (month - 9) / 7) / 100 + 1) / 4
                 + 275 * month / 9 + day + 1721029;
         return jd;
@@ -1103,30 +1838,52 @@ public class TimeUtil {
      * @return a TimeStruct with the month, day and year fields set.
      */
     public static int[] fromJulianDay(int julian) {
-        int j = julian + 32044;
-        int g = j / 146097;
-        int dg = j % 146097;
-        int c = (dg / 36524 + 1) * 3 / 4;
-        int dc = dg - c * 36524;
-        int b = dc / 1461;
-        int db = dc % 1461;
-        int a = (db / 365 + 1) * 3 / 4;
-        int da = db - a * 365;
-        int y = g * 400 + c * 100 + b * 4 + a;
-        int m = (da * 5 + 308) / 153 - 2;
-        int d = da - (m + 4) * 153 / 5 + 122;
-        int Y = y - 4800 + (m + 2) / 12;
-        int M = (m + 2) % 12 + 1;
-        int D = d + 1;
         int[] result = new int[TIME_DIGITS];
-        result[0] = Y;
-        result[1] = M;
-        result[2] = D;
-        result[3] = 0;
-        result[4] = 0;
-        result[5] = 0;
-        result[6] = 0;
+        fromJulianDay( julian, result, 0 );
         return result;
+    }
+    
+    /**
+     * Break the Julian day apart into month, day year, writing the result 
+     * into the array at the offset, with the hours, minutes, seconds, and
+     * nanoseconds cleared.  Days in the years 1582 through 9000 are looked up in 
+     * tables, and others are calculated.
+     * @param julian the Julian day
+     * @param result the array which will contain the seven-component time
+     * @param offset the index of the year component, typically 0 or 7.
+     * @see #fromJulianDay(int) 
+     */
+    public static void fromJulianDay( int julian, int[] result, int offset ) {
+        int i= yearIndex( julian );
+        if ( i>-1 ) {
+            int jan1= JANUARY_FIRST_JULIAN_DAY[i];
+            int leap= JANUARY_FIRST_JULIAN_DAY[i+1] - jan1 - 365;
+            int doy= julian - jan1 + 1;
+            int month= MONTH_OF_DAY_OF_YEAR[leap][doy];
+            result[offset] = TABLE_FIRST_YEAR + i;
+            result[offset+1] = month;
+            result[offset+2] = doy - DAY_OFFSET[leap][month];
+        } else {
+            int j = julian + 32044;
+            int g = j / 146097;
+            int dg = j % 146097;
+            int c = (dg / 36524 + 1) * 3 / 4;
+            int dc = dg - c * 36524;
+            int b = dc / 1461;
+            int db = dc % 1461;
+            int a = (db / 365 + 1) * 3 / 4;
+            int da = db - a * 365;
+            int y = g * 400 + c * 100 + b * 4 + a;
+            int m = (da * 5 + 308) / 153 - 2;
+            int d = da - (m + 4) * 153 / 5 + 122;
+            result[offset] = y - 4800 + (m + 2) / 12;
+            result[offset+1] = (m + 2) % 12 + 1;
+            result[offset+2] = d + 1;
+        }
+        result[offset+3] = 0;
+        result[offset+4] = 0;
+        result[offset+5] = 0;
+        result[offset+6] = 0;
     }    
     
     /**
@@ -1217,53 +1974,91 @@ public class TimeUtil {
      * @throws ParseException when the string cannot be used
      */
     public static int[] parseISO8601TimeRange(String stringIn) throws ParseException {
-        String[] ss = stringIn.split("/");
-        if ( ss.length!=2 ) {
+        int[] result= new int[14];
+        parseISO8601TimeRange( stringIn, 0, stringIn.length(), result, 0 );
+        return result;
+    }
+    
+    /**
+     * return true if the characters appear to be a properly formatted time or duration.
+     * @see #isValidFormattedTime(java.lang.String) 
+     */
+    private static boolean isValidFormattedTime( CharSequence time, int start, int end ) {
+        if ( end<=start ) {
+            return false;
+        }
+        char c= time.charAt(start);
+        return Character.isDigit(c) || c=='P' || startsWith( time, start, end, "now" ) || startsWith( time, start, end, "last" );
+    }
+    
+    /**
+     * parse the ISO8601 time range in the characters from start to end, like 
+     * "1998-01-02/1998-01-17", putting the start and stop times into the array at 
+     * the offset.  The times are scanned in place, as parseISO8601Time does.
+     * @param stringIn the characters, such as a String or a CharBuffer.
+     * @param start the index of the first character of the range
+     * @param end the index following the last character of the range
+     * @param result the array for the time range [ Y,m,d,H,M,S,nano, Y,m,d,H,M,S,nano ]
+     * @param offset the index of the start year in result.
+     * @throws ParseException when a duration cannot be used
+     * @throws IllegalArgumentException when the range cannot be parsed.
+     * @see #parseISO8601TimeRange(java.lang.String) 
+     */
+    public static void parseISO8601TimeRange( CharSequence stringIn, int start, int end, int[] result, int offset ) throws ParseException {
+        while ( end>start && stringIn.charAt(end-1)=='/' ) { // as String.split does
+            end--;
+        }
+        int slash= -1;
+        for ( int i=start; i<end; i++ ) {
+            if ( stringIn.charAt(i)=='/' ) {
+                if ( slash>-1 ) {
+                    slash= -1;
+                    break;
+                }
+                slash= i;
+            }
+        }
+        if ( slash==-1 ) {
             throw new IllegalArgumentException("expected one slash (/) splitting start and stop times.");
         }
-        if ( !isValidFormattedTime( ss[0] ) ) {
+        if ( !isValidFormattedTime( stringIn, start, slash ) ) {
             throw new IllegalArgumentException("first time/duration is misformatted.  Should be ISO8601 time or duration like P1D.");
         }
-        if ( !isValidFormattedTime( ss[1] ) ) {
+        if ( !isValidFormattedTime( stringIn, slash+1, end ) ) {
             throw new IllegalArgumentException("second time/duration is misformatted.  Should be ISO8601 time or duration like P1D.");
         }
-        int[] result= new int[14];
-        if ( ss[0].startsWith("P") ) {
-            int[] duration= parseISO8601Duration(ss[0]);
-            int[] time= isoTimeToArray(ss[1]);
+        if ( stringIn.charAt(start)=='P' ) {
+            int[] duration= parseISO8601Duration( stringIn.subSequence( start, slash ).toString() );
+            parseISO8601Time( stringIn, slash+1, end, result, offset+TIME_DIGITS );
             for ( int i=0; i<TIME_DIGITS; i++ ) {
-                result[i]= time[i]-duration[i];
+                result[offset+i]= result[offset+TIME_DIGITS+i]-duration[i];
             }
-            normalizeTime( result );
-            setStopTime( time,result );
-            return result;
-        } else if ( ss[1].startsWith("P") ) {
-            int[] time= isoTimeToArray(ss[0]);
-            int[] duration= parseISO8601Duration(ss[1]);
-            setStartTime( time, result );
-            int[] stoptime= new int[TIME_DIGITS];
+            normalizeTime( result, offset );
+        } else if ( stringIn.charAt(slash+1)=='P' ) {
+            parseISO8601Time( stringIn, start, slash, result, offset );
+            int[] duration= parseISO8601Duration( stringIn.subSequence( slash+1, end ).toString() );
             for ( int i=0; i<TIME_DIGITS; i++ ) {
-                stoptime[i]= time[i]+duration[i];
+                result[offset+TIME_DIGITS+i]= result[offset+i]+duration[i];
             }
-            normalizeTime( stoptime );
-            setStopTime( stoptime, result );
-            return result;
+            normalizeTime( result, offset+TIME_DIGITS );
         } else {
-            int[] starttime= isoTimeToArray(ss[0]);
-            int[] stoptime; 
-            if ( ss[1].length()==ss[0].length() ) {
-                stoptime=  isoTimeToArray(ss[1]);
-            } else {
-                if ( ss[1].contains("T") ) {
-                    stoptime= isoTimeToArray( ss[1] );
-                } else {
-                    int partToShare= ss[0].length() - ss[1].length();
-                    stoptime= isoTimeToArray( ss[0].substring(0,partToShare) + ss[1] );
+            parseISO8601Time( stringIn, start, slash, result, offset );
+            int startLength= slash-start;
+            int stopLength= end-slash-1;
+            boolean hasT= false;
+            for ( int i=slash+1; i<end; i++ ) {
+                if ( stringIn.charAt(i)=='T' ) {
+                    hasT= true;
+                    break;
                 }
             }
-            setStartTime( starttime, result );
-            setStopTime( stoptime, result );
-            return result;
+            if ( stopLength==startLength || hasT ) {
+                parseISO8601Time( stringIn, slash+1, end, result, offset+TIME_DIGITS );
+            } else {
+                int partToShare= startLength - stopLength;
+                String stop= stringIn.subSequence( start, start+partToShare ).toString() + stringIn.subSequence( slash+1, end );
+                parseISO8601Time( stop, 0, stop.length(), result, offset+TIME_DIGITS );
+            }
         }
     }
 
@@ -1302,6 +2097,44 @@ public class TimeUtil {
         return result;
     }
     
+    /**
+     * subtract the offset from the base time, putting the result into an 
+     * array rather than creating a new one.  The result may be the base.
+     *
+     * @param base an array containing the time
+     * @param baseOffset the index of the year in base.
+     * @param offset offset in each component.
+     * @param result the array for the result
+     * @param resultOffset the index of the year in result.
+     * @see #subtract(int[], int[]) 
+     */
+    public static void subtractInto( int[] base, int baseOffset, int[] offset, int[] result, int resultOffset ) {
+        for (int i = 0; i < TIME_DIGITS; i++) {
+            result[resultOffset+i] = base[baseOffset+i] - offset[i];
+        }
+        if (result[resultOffset] > 400) {
+            normalizeTime(result,resultOffset);
+        }
+    }
+
+    /**
+     * add the offset to the base time, putting the result into an array 
+     * rather than creating a new one.  The result may be the base.
+     *
+     * @param base an array containing the time
+     * @param baseOffset the index of the year in base.
+     * @param offset offset in each component.
+     * @param result the array for the result
+     * @param resultOffset the index of the year in result.
+     * @see #add(int[], int[]) 
+     */
+    public static void addInto( int[] base, int baseOffset, int[] offset, int[] result, int resultOffset ) {
+        for (int i = 0; i < TIME_DIGITS; i++) {
+            result[resultOffset+i] = base[baseOffset+i] + offset[i];
+        }
+        normalizeTime(result,resultOffset);
+    }
+    
     /**
      * true if t1 is after t2.
      * @param t1 seven-component time
@@ -1369,28 +2202,7 @@ public class TimeUtil {
      * @see #formatIso8601TimeBrief(int[]) 
      */
     public static String formatIso8601TimeInTimeRangeBrief(int[] time, int offset ) {
-        
-        String stime= TimeUtil.formatIso8601TimeInTimeRange(time,offset);
-        
-        int nanos= time[ COMPONENT_NANOSECOND+offset ];
-        int micros= nanos % 1000;
-        int millis= nanos % 10000000;
-        
-        if ( nanos==0 ) {
-            if ( time[5+offset]==0 ) {
-                return stime.substring(0,16) + "Z";
-            } else {
-                return stime.substring(0,19) + "Z";
-            }
-        } else {
-            if ( millis==0 ) {
-                return stime.substring(0,23) + "Z";
-            } else if ( micros==0 ) {
-                return stime.substring(0,26) + "Z";
-            } else {
-                return stime;
-            }
-        }
+        return formatIso8601Time( time, offset, ISO8601_BRIEF );
     }
     
     /**
@@ -1405,36 +2217,20 @@ public class TimeUtil {
      */
     public static int[] nextRange( int[] timerange ) {
         int[] result= new int[TimeUtil.TIME_RANGE_DIGITS];
-        int[] width= new int[TimeUtil.TIME_DIGITS];
-        for ( int i=0; i<TimeUtil.TIME_DIGITS; i++ ) {
-            width[ i ] = timerange[i+TimeUtil.TIME_DIGITS ] - timerange[i] ;
-        }
-        if ( width[5]<0 ) {
-            width[5]= width[5]+60;
-            width[4]= width[4]-1;
-        }
-        if ( width[4]<0 ) {
-            width[4]= width[4]+60;
-            width[3]= width[3]-1;
-        }
-        if ( width[3]<0 ) {
-            width[3]= width[3]+24;
-            width[2]= width[2]-1;
-        }
-        if ( width[2]<0 ) {
-            int daysInMonth= TimeUtil.daysInMonth( timerange[COMPONENT_YEAR], timerange[COMPONENT_MONTH] );
-            width[2]= width[2]+daysInMonth;
-            width[1]= width[1]-1;
-        }
-        if ( width[1]<0 ) {
-            width[1]= width[1]+12;
-            width[0]= width[0]-1;
-        }
-        // System.arraycopy( range, TimeUtil.TIME_DIGITS, result, 0, TimeUtil.TIME_DIGITS );
-        setStartTime( getStopTime(timerange), result ); // This creates an extra array, but let's not worry about that.
-        setStopTime( TimeUtil.add( getStopTime(timerange), width ), result );
+        nextRange( timerange, result );
         return result;
     }
+    
+    /**
+     * put the next interval into the result, which may be the same array 
+     * as the time range.  This has the restrictions of nextRange(int[]).
+     * @param timerange 14-component time interval.
+     * @param result 14-component array for the next time interval.
+     * @see #nextRange(int[]) 
+     */
+    public static void nextRange( int[] timerange, int[] result ) {
+        stepRange( timerange, result, true );
+    }
        
     /**
      * return the previous interval, given the 14-component time interval.  This
@@ -1448,34 +2244,164 @@ public class TimeUtil {
      */
     public static int[] previousRange( int[] timerange ) {
         int[] result= new int[TimeUtil.TIME_RANGE_DIGITS];
-        int[] width= new int[TimeUtil.TIME_DIGITS];
-        for ( int i=0; i<TimeUtil.TIME_DIGITS; i++ ) {
-            width[ i ] = timerange[i+TimeUtil.TIME_DIGITS ] - timerange[i] ;
+        previousRange( timerange, result );
+        return result;
+    }
+    
+    /**
+     * put the previous interval into the result, which may be the same array 
+     * as the time range.  This has the restrictions of previousRange(int[]).
+     * @param timerange 14-component time interval.
+     * @param result 14-component array for the previous time interval.
+     * @see #previousRange(int[]) 
+     */
+    public static void previousRange( int[] timerange, int[] result ) {
+        stepRange( timerange, result, false );
+    }
+    
+    /**
+     * put the next or previous interval into the result, keeping the width 
+     * in local variables so that no arrays are created.
+     * @param timerange 14-component time interval.
+     * @param result 14-component array, which may be timerange.
+     * @param next true for the next interval, false for the previous.
+     */
+    private static void stepRange( int[] timerange, int[] result, boolean next ) {
+        int w0= timerange[7] - timerange[0];
+        int w1= timerange[8] - timerange[1];
+        int w2= timerange[9] - timerange[2];
+        int w3= timerange[10] - timerange[3];
+        int w4= timerange[11] - timerange[4];
+        int w5= timerange[12] - timerange[5];
+        int w6= timerange[13] - timerange[6];
+        if ( w5<0 ) {
+            w5= w5+60;
+            w4= w4-1;
+        }
+        if ( w4<0 ) {
+            w4= w4+60;
+            w3= w3-1;
+        }
+        if ( w3<0 ) {
+            w3= w3+24;
+            w2= w2-1;
+        }
+        if ( w2<0 ) {
+            int daysInMonth= TimeUtil.daysInMonth( timerange[COMPONENT_YEAR], timerange[COMPONENT_MONTH] );
+            w2= w2+daysInMonth;
+            w1= w1-1;
+        }
+        if ( w1<0 ) {
+            w1= w1+12;
+            w0= w0-1;
+        }
+        if ( next ) {
+            System.arraycopy( timerange, TimeUtil.TIME_DIGITS, result, 0, TimeUtil.TIME_DIGITS );
+            result[7]= result[0] + w0;
+            result[8]= result[1] + w1;
+            result[9]= result[2] + w2;
+            result[10]= result[3] + w3;
+            result[11]= result[4] + w4;
+            result[12]= result[5] + w5;
+            result[13]= result[6] + w6;
+            normalizeTime( result, TimeUtil.TIME_DIGITS );
+        } else {
+            System.arraycopy( timerange, 0, result, TimeUtil.TIME_DIGITS, TimeUtil.TIME_DIGITS );
+            result[0]= result[7] - w0;
+            result[1]= result[8] - w1;
+            result[2]= result[9] - w2;
+            result[3]= result[10] - w3;
+            result[4]= result[11] - w4;
+            result[5]= result[12] - w5;
+            result[6]= result[13] - w6;
+            if ( result[0]>400 ) {
+                normalizeTime( result, 0 );
+            }
+        }
+    }
+    
+    /**
+     * a time range which steps to the next or previous interval in place,
+     * so that loops over many intervals do not create arrays.  For example:<pre>
+     *   TimeUtil.RangeCursor c= new TimeUtil.RangeCursor( TimeUtil.parseISO8601TimeRange("2022-12-05Z/2022-12-15Z") );
+     *   while ( c.get(0)<2023 ) {
+     *       c.next();
+     *   }
+     * </pre>
+     * The intervals have the restrictions of nextRange(int[]).
+     */
+    public static final class RangeCursor {
+        
+        private final int[] timerange= new int[TimeUtil.TIME_RANGE_DIGITS];
+        
+        /**
+         * create a cursor at the time range, which is copied.
+         * @param timerange 14-component time interval.
+         */
+        public RangeCursor( int[] timerange ) {
+            set( timerange );
+        }
+        
+        /**
+         * move the cursor to the time range, which is copied.
+         * @param timerange 14-component time interval.
+         */
+        public void set( int[] timerange ) {
+            System.arraycopy( timerange, 0, this.timerange, 0, TimeUtil.TIME_RANGE_DIGITS );
         }
-        if ( width[5]<0 ) {
-            width[5]= width[5]+60;
-            width[4]= width[4]-1;
+        
+        /**
+         * move to the next interval.
+         */
+        public void next() {
+            stepRange( timerange, timerange, true );
         }
-        if ( width[4]<0 ) {
-            width[4]= width[4]+60;
-            width[3]= width[3]-1;
+        
+        /**
+         * move to the previous interval.
+         */
+        public void previous() {
+            stepRange( timerange, timerange, false );
         }
-        if ( width[3]<0 ) {
-            width[3]= width[3]+24;
-            width[2]= width[2]-1;
+        
+        /**
+         * return one component of the current interval.
+         * @param i the index, 0 for the start year through 13 for the stop nanoseconds.
+         * @return the component
+         */
+        public int get( int i ) {
+            return timerange[i];
         }
-        if ( width[2]<0 ) {
-            int daysInMonth= TimeUtil.daysInMonth( timerange[COMPONENT_YEAR], timerange[COMPONENT_MONTH] );
-            width[2]= width[2]+daysInMonth;
-            width[1]= width[1]-1;
+        
+        /**
+         * copy the current interval into the array.
+         * @param result the array
+         * @param offset the index where the start year is put.
+         */
+        public void copyTo( int[] result, int offset ) {
+            System.arraycopy( timerange, 0, result, offset, TimeUtil.TIME_RANGE_DIGITS );
         }
-        if ( width[1]<0 ) {
-            width[1]= width[1]+12;
-            width[0]= width[0]-1;
+        
+        /**
+         * return true if the current interval starts before the time.
+         * @param time seven-component time
+         * @return true if the current interval starts before the time.
+         */
+        public boolean startsBefore( int[] time ) {
+            for ( int i=0; i<TimeUtil.TIME_DIGITS ; i++ ) {
+                if ( timerange[i]<time[i] ) {
+                    return true;
+                } else if ( timerange[i]>time[i] ) {
+                    return false;
+                }
+            }
+            return false;
+        }
+        
+        @Override
+        public String toString() {
+            return formatIso8601TimeRange( timerange );
         }
-        setStopTime( getStartTime(timerange), result );
-        setStartTime( TimeUtil.subtract(getStartTime(timerange), width ), result ); // This creates an extra array, but let's not worry about that.
-        return result;
     }
             
     /**
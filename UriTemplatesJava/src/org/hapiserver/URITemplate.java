@@ -4,7 +4,10 @@ package org.hapiserver;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -12,11 +15,20 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * URITemplate implements a URI_Template, as described in 
@@ -77,6 +89,32 @@ public class URITemplate {
     public static final int SECOND=5;
     public static final int NANOSECOND=6;
     
+    /**
+     * parse status indicating the string was parsed.
+     */
+    public static final int PARSE_OK= 0;
+    
+    /**
+     * parse status indicating the string does not match the template.
+     */
+    public static final int PARSE_NO_MATCH= 1;
+    
+    /**
+     * parse status indicating the string matches the template, but the time 
+     * cannot be represented, for example as nanoseconds since 1970.
+     */
+    public static final int PARSE_OUT_OF_RANGE= 2;
+    
+    /**
+     * parse status indicating a field which should contain a number or month name does not.
+     */
+    public static final int PARSE_BAD_DIGIT= 3;
+    
+    /**
+     * parse status indicating the literal text between fields was not found.
+     */
+    public static final int PARSE_WRONG_DELIMITER= 4;
+    
     /**
      * initial state of the afterstop field, present when no stop time is found.
      */
@@ -188,7 +226,454 @@ public class URITemplate {
     private int startLsd;
     
     private int twoDigitYearStart=1950;
+
+    /**
+     * the compiled parse plan, one step for each field.  As with handlers[],
+     * offsets[] and lengths[], the zeroth element is not used.
+     */
+    private FieldStep[] steps;
+    
+    /**
+     * true if any field of the template puts values into the extra map.
+     */
+    private boolean writesExtra;
+    
+    /**
+     * the names of the values put into extra, one for each slot of the Extras record.
+     */
+    private String[] extraNames;
+    
+    /**
+     * true if names can be formatted by appending each field in turn, 
+     * without inserting text or calling field handlers.
+     */
+    private boolean appendFormat;
+    
+    /**
+     * true if the template contains only ASCII characters, so that bytes can be parsed without decoding.
+     */
+    private boolean specIsAscii;
+    
+    /**
+     * quick checks which rule out strings which cannot match the template.
+     */
+    private Prefilter prefilter;
+    
+    /**
+     * the automaton which finds the fields when their lengths are not all known, 
+     * or null when the offsets and lengths of all fields are known.
+     */
+    private Automaton automaton;
+    
+    /**
+     * automaton which finds the start and end of each field in one pass over 
+     * the string, when fields have variable length.  This is a Pike VM, 
+     * which runs all the possible ways the string might be split into fields 
+     * at once, in priority order, so that time is linear in the length of the 
+     * string and delimiters which also appear within fields are handled properly.  
+     * Where the template allows more than one split, the fields which come first 
+     * are made as short as possible, as the delimiter search did before.
+     */
+    private static final class Automaton {
+        
+        /**
+         * match the character in arg.
+         */
+        static final int CHAR= 0;
+        
+        /**
+         * match any character of the class in arg.
+         */
+        static final int CLASS= 1;
+        
+        /**
+         * continue at x, and with lower priority at y.
+         */
+        static final int SPLIT= 2;
+        
+        /**
+         * continue at x.
+         */
+        static final int JMP= 3;
+        
+        /**
+         * record the position in the slot arg.
+         */
+        static final int SAVE= 4;
+        
+        /**
+         * the string matches, if this is the end of the string.
+         */
+        static final int MATCH= 5;
+        
+        /**
+         * match the next character of a string in the trie tries[arg].  The 
+         * node of the trie is pc-y, and x follows the trie.
+         */
+        static final int TRIE= 6;
+        
+        /**
+         * any character
+         */
+        static final int ANY= 0;
+        
+        /**
+         * digits, signs, and spaces, which can be found in a number.
+         */
+        static final int NUMERIC= 1;
+        
+        final int[] op;
+        final int[] arg;
+        final int[] x;
+        final int[] y;
+        
+        /**
+         * the tries of values, for enumeration fields.
+         */
+        final ValueTrie[] tries;
+        
+        /**
+         * the number of slots, two for each field.
+         */
+        final int nslots;
+        
+        /**
+         * arrays used while matching, one set for each thread.
+         */
+        final ThreadLocal<Workspace> workspace;
+        
+        Automaton( int[] op, int[] arg, int[] x, int[] y, ValueTrie[] tries, int nslots ) {
+            this.op= op;
+            this.arg= arg;
+            this.x= x;
+            this.y= y;
+            this.tries= tries;
+            this.nslots= nslots;
+            this.workspace= ThreadLocal.withInitial( () -> new Workspace( op.length, nslots ) );
+        }
+        
+        /**
+         * the lists of threads and the positions they have recorded.
+         */
+        private static final class Workspace {
+            int[] currentPc;
+            int[] currentSlots;
+            int currentCount;
+            int[] nextPc;
+            int[] nextSlots;
+            int nextCount;
+            int[] mark;
+            int generation;
+            int[] slots;
+            int[] bounds;
+            
+            Workspace( int n, int nslots ) {
+                currentPc= new int[n];
+                currentSlots= new int[n*nslots];
+                nextPc= new int[n];
+                nextSlots= new int[n*nslots];
+                mark= new int[n];
+                slots= new int[nslots];
+                bounds= new int[nslots];
+            }
+            
+            void swap() {
+                int[] t= currentPc;
+                currentPc= nextPc;
+                nextPc= t;
+                t= currentSlots;
+                currentSlots= nextSlots;
+                nextSlots= t;
+                currentCount= nextCount;
+                nextCount= 0;
+            }
+        }
+        
+        /**
+         * return true if the character is in the class.
+         * @param c the character
+         * @param cls the class, like NUMERIC.
+         * @return true if the character is in the class.
+         */
+        private static boolean inClass( char c, int cls ) {
+            switch ( cls ) {
+                case ANY:
+                    return true;
+                case NUMERIC:
+                    return ( c>='0' && c<='9' ) || c<=' ' || c=='+' || c=='-' || Character.isDigit(c);
+                default:
+                    throw new IllegalArgumentException("bad class");
+            }
+        }
+        
+        /**
+         * add the thread at pc to the next list, following jumps and splits 
+         * and recording positions, unless a thread with higher priority is 
+         * already there.
+         * @param w the workspace, where slots has the positions recorded by the thread.
+         * @param pc the instruction
+         * @param pos the position in the string
+         */
+        private void addThread( Workspace w, int pc, int pos ) {
+            if ( w.mark[pc]==w.generation ) {
+                return;
+            }
+            w.mark[pc]= w.generation;
+            switch ( op[pc] ) {
+                case JMP:
+                    addThread( w, x[pc], pos );
+                    break;
+                case SPLIT:
+                    addThread( w, x[pc], pos );
+                    addThread( w, y[pc], pos );
+                    break;
+                case SAVE:
+                    int old= w.slots[arg[pc]];
+                    w.slots[arg[pc]]= pos;
+                    addThread( w, pc+1, pos );
+                    w.slots[arg[pc]]= old;
+                    break;
+                case TRIE:
+                    ValueTrie trie= tries[arg[pc]];
+                    int node= pc-y[pc];
+                    if ( trie.value[node]>=0 ) {
+                        addThread( w, x[pc], pos ); // a value ends here, which is preferred to a longer value.
+                    }
+                    if ( trie.edgeStart[node]<trie.edgeStart[node+1] ) {
+                        w.nextPc[w.nextCount]= pc;
+                        System.arraycopy( w.slots, 0, w.nextSlots, w.nextCount*nslots, nslots );
+                        w.nextCount++;
+                    }
+                    break;
+                default:
+                    w.nextPc[w.nextCount]= pc;
+                    System.arraycopy( w.slots, 0, w.nextSlots, w.nextCount*nslots, nslots );
+                    w.nextCount++;
+                    break;
+            }
+        }
+        
+        /**
+         * find the fields in the characters from start to end.  The result is 
+         * reused by the next match on this thread.
+         * @param s the characters
+         * @param start the index of the first character.
+         * @param end the index following the last character.
+         * @return the start and end of each field, at 2*i and 2*i+1 for field i, or null if there is no match.
+         */
+        int[] match( CharSequence s, int start, int end ) {
+            Workspace w= workspace.get();
+            w.currentCount= 0;
+            w.nextCount= 0;
+            w.generation++;
+            Arrays.fill( w.slots, -1 );
+            addThread( w, 0, start );
+            w.swap();
+            for ( int pos=start; pos<end; pos++ ) {
+                if ( w.currentCount==0 ) {
+                    return null;
+                }
+                char c= s.charAt(pos);
+                w.generation++;
+                for ( int i=0; i<w.currentCount; i++ ) {
+                    int pc= w.currentPc[i];
+                    int next;
+                    switch ( op[pc] ) {
+                        case CHAR:
+                            next= c==arg[pc] ? pc+1 : -1;
+                            break;
+                        case CLASS:
+                            next= inClass( c, arg[pc] ) ? pc+1 : -1;
+                            break;
+                        case TRIE:
+                            int node= tries[arg[pc]].child( pc-y[pc], c );
+                            next= node<0 ? -1 : y[pc]+node;
+                            break;
+                        default:
+                            next= -1; // MATCH is only accepted at the end of the string.
+                            break;
+                    }
+                    if ( next>=0 ) {
+                        System.arraycopy( w.currentSlots, i*nslots, w.slots, 0, nslots );
+                        addThread( w, next, pos+1 );
+                    }
+                }
+                w.swap();
+            }
+            for ( int i=0; i<w.currentCount; i++ ) {
+                if ( op[w.currentPc[i]]==MATCH ) {
+                    System.arraycopy( w.currentSlots, i*nslots, w.bounds, 0, nslots );
+                    return w.bounds;
+                }
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * quick checks compiled from the template, which rule out strings
+     * before the parse is attempted.  Each check is implied by the parse,
+     * so a string which would parse is never rejected.
+     */
+    private static final class Prefilter {
+        
+        /**
+         * the exact length of matching strings, or -1 when this is not known.
+         */
+        int length;
+        
+        /**
+         * the minimum length of matching strings.
+         */
+        int minLength;
+        
+        /**
+         * the literal text which must end matching strings.
+         */
+        String suffix;
+        
+        /**
+         * the literal text found at fixed offsets.
+         */
+        String[] literals;
+        int[] literalOffsets;
+        
+        /**
+         * the fixed ranges which must contain only digits, spaces, and signs.
+         */
+        int[] digitStart;
+        int[] digitEnd;
+        
+        /**
+         * return false if the characters from start to end cannot match the template.
+         * @param s the characters
+         * @param start the index of the first character.
+         * @param end the index following the last character.
+         * @return false if the characters certainly do not match.
+         */
+        boolean mayMatch( CharSequence s, int start, int end ) {
+            int n= end-start;
+            if ( length>-1 ? n!=length : n<minLength ) {
+                return false;
+            }
+            if ( !regionMatches( s, end-suffix.length(), suffix ) ) {
+                return false;
+            }
+            for ( int i=0; i<literals.length; i++ ) {
+                if ( !regionMatches( s, start+literalOffsets[i], literals[i] ) ) {
+                    return false;
+                }
+            }
+            for ( int i=0; i<digitStart.length; i++ ) {
+                for ( int j=start+digitStart[i]; j<start+digitEnd[i]; j++ ) {
+                    char c= s.charAt(j);
+                    if ( ( c<'0' || c>'9' ) && c>' ' && c!='+' && c!='-' && !Character.isDigit(c) ) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * one step of the compiled parse plan.  Everything which can be decided
+     * from the template is decided in the constructor, so that the parse
+     * loop does no map lookups or string-to-number conversions.
+     */
+    private static final class FieldStep {
+
+        /**
+         * the format code, like "Y" or "enum".
+         */
+        String code;
+
+        /**
+         * the handler (or type) of the field, as in handlers[].
+         */
+        int handler;
+
+        /**
+         * the field handler configured for this field, or null for the built-in codes.
+         */
+        FieldHandler fieldHandler;
+
+        /**
+         * the offset to the field, or -1 if the offset is not determined.
+         */
+        int offset;
+
+        /**
+         * the number of characters in the field, or -1 if the length is not known.
+         */
+        int length;
+
+        /**
+         * the delimiter found before the field.
+         */
+        String delimBefore;
+
+        /**
+         * the delimiter found after the field.
+         */
+        String delimAfter;
+
+        /**
+         * the field is multiplied by this, from $(j;div=100), or 1.
+         */
+        int div;
+
+        /**
+         * the century of the start of the two-digit year window, 19 for 1950.
+         */
+        int twoDigitYearCentury;
+
+        /**
+         * the year within the century of the start of the two-digit year window, 50 for 1950.
+         */
+        int twoDigitYearMod;
+
+        /**
+         * the name used in extra for the field content.
+         */
+        String name;
+
+        /**
+         * true if this is the first field of the stop time.
+         */
+        boolean startsStopTime;
+
+        /**
+         * the field handler when it is an enumeration, whose values are looked up directly in the string.
+         */
+        EnumFieldHandler enumHandler;
+
+        /**
+         * the slot of the Extras record where the field content is stored, or -1.
+         */
+        int extraSlot;
+
+        /**
+         * the delta or span of the field, used when formatting, or -1 if it is not an integer.
+         */
+        int formatDelta;
+
+        /**
+         * the padding used when formatting a value less than 10, like PAD_ZERO.
+         */
+        int formatPad;
+
+        /**
+         * the month names used when formatting, for $b.
+         */
+        String[] monthNames;
+    }
     
+    private static final int PAD_ZERO= 0;
+    private static final int PAD_SPACE= 1;
+    private static final int PAD_UNDERSCORE= 2;
+    private static final int PAD_NONE= 3;
+
     /**
      * parse the formatted arguments into a map from name to value.
      * @param args formatted arguments, like A=1;B=2;fmt=lc
@@ -511,9 +996,19 @@ public class URITemplate {
         Set<String> values;
         String id;
         
+        /**
+         * the values, in the order they were given.
+         */
+        String[] valueList;
+        
+        /**
+         * trie of the values, so they can be found directly in the string.
+         */
+        ValueTrie trie;
+        
         @Override
         public String configure( Map<String, String> args ) {
-            values= new HashSet();
+            values= new LinkedHashSet<>();
             String svalues= getArg( args, "values", null );
             if ( svalues==null ) return "need values";
             String[] ss= svalues.split(",",-2);
@@ -525,6 +1020,8 @@ public class URITemplate {
                 }
             }
             values.addAll(Arrays.asList(ss));
+            valueList= values.toArray( new String[values.size()] );
+            trie= new ValueTrie( valueList );
             
             id= getArg( args, "id", "unindentifiedEnum" );
                         
@@ -544,10 +1041,11 @@ public class URITemplate {
 
         @Override
         public void parse(String fieldContent, int[] startTime, int[] timeWidth, Map<String, String> extra) throws ParseException {
-            if ( !values.contains(fieldContent) ) {
+            int index= trie.lookup( fieldContent, 0, fieldContent.length() );
+            if ( index<0 ) {
                 throw new ParseException("value is not in enum: "+fieldContent,0);
             }
-            extra.put( id, fieldContent );
+            extra.put( id, valueList[index] );
         }
 
         @Override
@@ -564,11 +1062,33 @@ public class URITemplate {
         }
         
         /**
-         * return the possible values.
+         * return the possible values, in the order they were given.
          * @return the possible values.
          */
         public String[] getValues() {
-            return this.values.toArray( new String[this.values.size()] );
+            return Arrays.copyOf( valueList, valueList.length );
+        }
+        
+        /**
+         * return the index of the value found in the characters from start 
+         * to end, without creating a string.  
+         * @param s the characters
+         * @param start the index of the first character.
+         * @param end the index following the last character.
+         * @return the index of the value in getValues(), or -1 if the characters are not one of the values.
+         * @see #getValue(int) 
+         */
+        public int indexOf( CharSequence s, int start, int end ) {
+            return trie.lookup( s, start, end );
+        }
+        
+        /**
+         * return the value at the index.
+         * @param index the index, as returned by indexOf.
+         * @return the value.
+         */
+        public String getValue( int index ) {
+            return valueList[index];
         }
         
         public String getId() {
@@ -577,25 +1097,157 @@ public class URITemplate {
     }
     
     /**
-     * $(x,name=sc,regex=[a|b])
+     * trie of strings, so that a string can be found directly in the 
+     * characters of a file name, in time proportional to its length rather 
+     * than the number of strings.  Each node is identified by an integer, 
+     * with node 0 the root, and the characters following each node are 
+     * stored together and sorted.
      */
-    public static class IgnoreFieldHandler implements FieldHandler {
-
-        String regex;
-        Pattern pattern;
-        String name;
-        String pad;
+    static final class ValueTrie {
         
-        @Override
-        public String configure(Map<String, String> args) {
-            regex= getArg( args, "regex", null );
-            if ( regex!=null ) {
-                pattern= Pattern.compile(regex);
+        /**
+         * the first edge of each node, and the edges of node n are edgeStart[n] to edgeStart[n+1].
+         */
+        final int[] edgeStart;
+        
+        /**
+         * the character of each edge.
+         */
+        final char[] edgeChar;
+        
+        /**
+         * the node following each edge.
+         */
+        final int[] edgeTarget;
+        
+        /**
+         * the index of the string ending at each node, or -1.
+         */
+        final int[] value;
+        
+        /**
+         * create the trie.
+         * @param values the strings, and the index of each is returned when it is found.
+         */
+        ValueTrie( String[] values ) {
+            Integer[] order= new Integer[values.length];
+            int nchar= 0;
+            for ( int i=0; i<values.length; i++ ) {
+                order[i]= i;
+                nchar+= values[i].length();
             }
-            name= getArg( args, "name", "unnamed" );
-            pad= getArg( args, "pad", "none" );
-            return null;
-        }
+            Arrays.sort( order, (a,b) -> values[a].compareTo(values[b]) );
+            
+            int[] es= new int[nchar+2];
+            char[] ec= new char[nchar];
+            int[] et= new int[nchar];
+            int[] val= new int[nchar+1];
+            
+            // nodes are numbered in breadth-first order, so the edges of each node are together.
+            // Each node has the sorted strings lo to hi which begin with its depth characters.
+            int[] lo= new int[nchar+1];
+            int[] hi= new int[nchar+1];
+            int[] depth= new int[nchar+1];
+            int nnodes= 1;
+            hi[0]= values.length;
+            int nedges= 0;
+            for ( int n=0; n<nnodes; n++ ) {
+                int d= depth[n];
+                es[n]= nedges;
+                val[n]= -1;
+                int i= lo[n];
+                while ( i<hi[n] && values[order[i]].length()==d ) {
+                    if ( val[n]==-1 ) val[n]= order[i];
+                    i++;
+                }
+                while ( i<hi[n] ) {
+                    char c= values[order[i]].charAt(d);
+                    int j= i+1;
+                    while ( j<hi[n] && values[order[j]].charAt(d)==c ) j++;
+                    ec[nedges]= c;
+                    et[nedges]= nnodes;
+                    lo[nnodes]= i;
+                    hi[nnodes]= j;
+                    depth[nnodes]= d+1;
+                    nedges++;
+                    nnodes++;
+                    i= j;
+                }
+            }
+            es[nnodes]= nedges;
+            this.edgeStart= Arrays.copyOf( es, nnodes+1 );
+            this.edgeChar= Arrays.copyOf( ec, nedges );
+            this.edgeTarget= Arrays.copyOf( et, nedges );
+            this.value= Arrays.copyOf( val, nnodes );
+        }
+        
+        /**
+         * return the number of nodes.
+         * @return the number of nodes.
+         */
+        int size() {
+            return value.length;
+        }
+        
+        /**
+         * return the node following the node for the character.
+         * @param node the node
+         * @param c the character
+         * @return the node, or -1 if no string continues with the character.
+         */
+        int child( int node, char c ) {
+            int i0= edgeStart[node];
+            int i1= edgeStart[node+1]-1;
+            while ( i0<=i1 ) {
+                int mid= ( i0 + i1 ) >>> 1;
+                char m= edgeChar[mid];
+                if ( m<c ) {
+                    i0= mid+1;
+                } else if ( m>c ) {
+                    i1= mid-1;
+                } else {
+                    return edgeTarget[mid];
+                }
+            }
+            return -1;
+        }
+        
+        /**
+         * return the index of the string found in the characters from start to end.
+         * @param s the characters
+         * @param start the index of the first character.
+         * @param end the index following the last character.
+         * @return the index of the string, or -1 if the characters are not one of the strings.
+         */
+        int lookup( CharSequence s, int start, int end ) {
+            int node= 0;
+            for ( int i=start; i<end && node>=0; i++ ) {
+                node= child( node, s.charAt(i) );
+            }
+            return node<0 ? -1 : value[node];
+        }
+    }
+    
+    /**
+     * $(x,name=sc,regex=[a|b])
+     */
+    public static class IgnoreFieldHandler implements FieldHandler {
+
+        String regex;
+        Pattern pattern;
+        String name;
+        String pad;
+        
+        @Override
+        public String configure(Map<String, String> args) {
+            regex= getArg( args, "regex", null );
+            if ( regex!=null ) {
+                pattern= Pattern.compile(regex);
+            }
+            name= getArg( args, "name", "unnamed" );
+            pad= getArg( args, "pad", "none" );
+            return null;
+        }
 
         @Override
         public String getRegex() {
@@ -666,19 +1318,7 @@ public class URITemplate {
         numericSplit( new Comparator<String>() {  // 4.3.23   // 1.1.3-01 for RBSP (rbspice lev-2 isrhelt)
            @Override
            public int compare(String s1, String s2) {
-                String[] ss1= s1.split("[\\.-]",-2);
-                String[] ss2= s2.split("[\\.-]",-2);
-                int n= Math.min( ss1.length, ss2.length );
-                for ( int i=0; i<n; i++ ) {
-                    int d1= Integer.parseInt(ss1[i]);
-                    int d2= Integer.parseInt(ss2[i]);
-                    if ( d1<d2 ) {
-                        return -1;
-                    } else if ( d1>d2 ) {
-                        return 1;
-                    }
-                }
-                return ss1.length - ss2.length;  // the longer version wins (3.2.1 > 3.2)
+                return VersionKey.compareParts( VersionKey.splitVersion(s1), VersionKey.splitVersion(s2) );
             } 
         });
 
@@ -687,6 +1327,125 @@ public class URITemplate {
             this.comp= comp;
         }
     };
+    
+    /**
+     * a version with its sort key calculated once, so that many versions 
+     * can be compared quickly.
+     */
+    static final class VersionKey implements Comparable<VersionKey> {
+        
+        final String version;
+        
+        /**
+         * the numbers of a numericSplit version, or null.
+         */
+        final int[] parts;
+        
+        /**
+         * the text of an alphanumeric version, or null.
+         */
+        final String text;
+        
+        /**
+         * the value of a numeric version.
+         */
+        final double number;
+        
+        /**
+         * calculate the sort key.
+         * @param type the versioning type.
+         * @param version the version, like 1.20
+         * @throws NumberFormatException when a numeric version is not a number.
+         */
+        VersionKey( VersioningType type, String version ) {
+            this.version= version;
+            switch ( type ) {
+                case numeric:
+                    this.number= Double.parseDouble(version);
+                    this.parts= null;
+                    this.text= null;
+                    break;
+                case numericSplit:
+                    this.number= 0;
+                    this.parts= splitVersion(version);
+                    this.text= null;
+                    break;
+                default:
+                    this.number= 0;
+                    this.parts= null;
+                    this.text= version;
+                    break;
+            }
+        }
+        
+        @Override
+        public int compareTo( VersionKey o ) {
+            if ( parts!=null ) {
+                return compareParts( parts, o.parts );
+            } else if ( text!=null ) {
+                return text.compareTo( o.text );
+            } else {
+                return Double.compare( number, o.number );
+            }
+        }
+        
+        /**
+         * return the numbers of a version split by decimal points and dashes.
+         * @param s the version, like 1.1.3-01
+         * @return the numbers, like [ 1, 1, 3, 1 ]
+         * @throws NumberFormatException when a part is not a number.
+         */
+        static int[] splitVersion( String s ) {
+            int n= 1;
+            for ( int i=0; i<s.length(); i++ ) {
+                char c= s.charAt(i);
+                if ( c=='.' || c=='-' ) n++;
+            }
+            int[] result= new int[n];
+            int j= 0;
+            int i0= 0;
+            for ( int i=0; i<=s.length(); i++ ) {
+                if ( i==s.length() || s.charAt(i)=='.' || s.charAt(i)=='-' ) {
+                    if ( i==i0 || i-i0>9 ) {
+                        result[j]= Integer.parseInt( s.substring(i0,i) ); // throws the same exception as before.
+                    } else {
+                        int d= 0;
+                        for ( int k=i0; k<i; k++ ) {
+                            char c= s.charAt(k);
+                            if ( c<'0' || c>'9' ) {
+                                d= Integer.parseInt( s.substring(i0,i) );
+                                break;
+                            }
+                            d= d*10 + ( c-'0' );
+                        }
+                        result[j]= d;
+                    }
+                    j++;
+                    i0= i+1;
+                }
+            }
+            return result;
+        }
+        
+        /**
+         * compare split versions, where the longer version wins when one 
+         * starts with the other (3.2.1 &gt; 3.2).
+         * @param ss1 the first version's numbers
+         * @param ss2 the second version's numbers
+         * @return negative, zero, or positive as the first version is less than, equal to, or greater than the second.
+         */
+        static int compareParts( int[] ss1, int[] ss2 ) {
+            int n= Math.min( ss1.length, ss2.length );
+            for ( int i=0; i<n; i++ ) {
+                if ( ss1[i]<ss2[i] ) {
+                    return -1;
+                } else if ( ss1[i]>ss2[i] ) {
+                    return 1;
+                }
+            }
+            return ss1.length - ss2.length;
+        }
+    }
 
 
     /**
@@ -770,6 +1529,147 @@ public class URITemplate {
         }
     };
     
+    /**
+     * selects the latest version of each file from a listing, for templates 
+     * with a version field like $Y$m$d_v$v.cdf.  Names are added one at a 
+     * time, and for each time range (and other fields, like $(x;name=sc)) 
+     * only the name with the greatest version is kept.  The sort key of each 
+     * version is calculated once as the name is added, and the ge and lt 
+     * constraints of the version field are applied.  For example:<pre>
+     *   LatestVersionSelector sel= new LatestVersionSelector( new URITemplate("$Y$m$d_v$v.cdf") );
+     *   for ( String n: listing ) sel.add(n);
+     *   List&lt;String&gt; latest= sel.getLatest();
+     * </pre>
+     * This is not thread-safe.
+     */
+    public static final class LatestVersionSelector {
+        
+        private final URITemplate template;
+        private final VersioningType versioningType;
+        private final VersionKey ge;
+        private final VersionKey lt;
+        private final Map<GroupKey,Entry> latest= new LinkedHashMap<>();
+        private final Map<String,String> extra= new HashMap<>();
+        private final int[] timeRange= new int[TimeUtil.TIME_RANGE_DIGITS];
+        
+        /**
+         * the name with the greatest version found so far.
+         */
+        private static final class Entry {
+            final String name;
+            final VersionKey key;
+            
+            Entry( String name, VersionKey key ) {
+                this.name= name;
+                this.key= key;
+            }
+        }
+        
+        /**
+         * the time range and other fields which identify a file, apart from its version.
+         */
+        private static final class GroupKey {
+            final int[] timeRange;
+            final Map<String,String> others;
+            final int hash;
+            
+            GroupKey( int[] timeRange, Map<String,String> others ) {
+                this.timeRange= timeRange;
+                this.others= others;
+                this.hash= Arrays.hashCode(timeRange) * 31 + ( others==null ? 0 : others.hashCode() );
+            }
+            
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+            
+            @Override
+            public boolean equals( Object o ) {
+                if ( !( o instanceof GroupKey ) ) return false;
+                GroupKey k= (GroupKey)o;
+                return hash==k.hash && Arrays.equals( timeRange, k.timeRange ) 
+                        && ( others==null ? k.others==null : others.equals(k.others) );
+            }
+        }
+        
+        /**
+         * create the selector.
+         * @param template the template, which must have a version field.
+         * @throws IllegalArgumentException when the template has no version field.
+         */
+        public LatestVersionSelector( URITemplate template ) {
+            this.template= template;
+            VersionFieldHandler first= null;
+            int count= 0;
+            for ( int i=1; i<template.ndigits; i++ ) {
+                if ( template.steps[i].fieldHandler instanceof VersionFieldHandler ) {
+                    if ( first==null ) first= (VersionFieldHandler)template.steps[i].fieldHandler;
+                    count++;
+                }
+            }
+            if ( first==null ) {
+                throw new IllegalArgumentException("template has no version field: "+template.spec);
+            }
+            this.versioningType= count>1 ? VersioningType.numericSplit : first.versioningType; // $v.$v.$v
+            this.ge= first.versionGe==null ? null : new VersionKey( versioningType, first.versionGe );
+            this.lt= first.versionLt==null ? null : new VersionKey( versioningType, first.versionLt );
+        }
+        
+        /**
+         * add the name, keeping it if it has the greatest version found so far for its time range.
+         * @param name the name, like 20050101_v1.20.cdf
+         * @return true if the name matches the template and its version is within the constraints.
+         */
+        public boolean add( CharSequence name ) {
+            extra.clear();
+            if ( template.tryParse( name, 0, name.length(), timeRange, extra, null )!=PARSE_OK ) {
+                return false;
+            }
+            String v= extra.remove("v");
+            if ( v==null ) {
+                return false;
+            }
+            VersionKey key;
+            try {
+                key= new VersionKey( versioningType, v );
+            } catch ( NumberFormatException ex ) {
+                return false;
+            }
+            if ( ( ge!=null && key.compareTo(ge)<0 ) || ( lt!=null && key.compareTo(lt)>=0 ) ) {
+                return false;
+            }
+            GroupKey group= new GroupKey( timeRange.clone(), extra.isEmpty() ? null : new HashMap<>(extra) );
+            Entry current= latest.get(group);
+            if ( current==null || key.compareTo(current.key)>0 ) {
+                latest.put( group, new Entry( name.toString(), key ) );
+            }
+            return true;
+        }
+        
+        /**
+         * return the names with the greatest version for each time range.  The 
+         * order is guaranteed to be the order in which the time ranges (and other 
+         * fields) were first added, which is time order only when the listing is.
+         * @return a new list of the names.
+         */
+        public List<String> getLatest() {
+            List<String> result= new ArrayList<>( latest.size() );
+            for ( Entry e: latest.values() ) {
+                result.add( e.name );
+            }
+            return result;
+        }
+        
+        /**
+         * return the number of time ranges found.
+         * @return the number of time ranges found.
+         */
+        public int size() {
+            return latest.size();
+        }
+    }
+    
     /**
      * convert %() and ${} to standard $(), and support legacy modes in one
      * compact place.  Asterisk (*) is replaced with $x.
@@ -1053,6 +1953,7 @@ public class URITemplate {
 
         handlers = new int[ndigits];
         offsets = new int[ndigits];
+        FieldHandler[] fieldHandlersByDigit= new FieldHandler[ndigits];
 
         int pos = 0;
         offsets[0] = pos;
@@ -1102,7 +2003,9 @@ public class URITemplate {
                     } else {
                         pos += lengths[i];
                     }
-                    FieldHandler fh= fieldHandlers.get(fc[i]);
+                    FieldHandler fh= newFieldHandler(fc[i]); // each field is configured separately, $(enum;values=a,b)_$(enum;values=c,d)
+                    fieldHandlers.put( fc[i], fh );
+                    fieldHandlersByDigit[i]= fh;
                     String args= qualifiers[i];
                     Map<String,String> argv= new HashMap();
                     if ( args!=null ) {
@@ -1485,6 +2388,331 @@ public class URITemplate {
         this.delims = delim;
         this.regex = regex1.toString();
 
+        this.steps= compileSteps( fieldHandlersByDigit );
+        this.prefilter= compilePrefilter();
+        this.automaton= compileAutomaton();
+        
+        this.specIsAscii= true;
+        for ( int i=0; i<spec.length(); i++ ) {
+            if ( spec.charAt(i)>127 ) {
+                this.specIsAscii= false;
+                break;
+            }
+        }
+    }
+    
+    /**
+     * return a new, unconfigured FieldHandler for the code.
+     * @param code the format code, like "enum"
+     * @return the FieldHandler
+     */
+    private static FieldHandler newFieldHandler( String code ) {
+        switch ( code ) {
+            case "subsec": 
+                return new SubsecFieldHandler();
+            case "hrinterval":
+                return new HrintervalFieldHandler();
+            case "periodic":
+                return new PeriodicFieldHandler();
+            case "enum":
+                return new EnumFieldHandler();
+            case "x":
+                return new IgnoreFieldHandler();
+            case "v":
+                return new VersionFieldHandler();
+            default:
+                throw new IllegalArgumentException("bad format code: \"" + code + "\"");
+        }
+    }
+    
+    /**
+     * return false if the string cannot match the template, using a few
+     * quick checks of the literal text, the length, and the digits found
+     * at fixed offsets.  When true is returned the string may still not 
+     * parse, but when false is returned the string certainly does not match.  This
+     * is intended for discarding the files of other datasets in a directory listing.
+     * @param timeString the string, like "ace_mag_2005_001.cdf"
+     * @return false if the string certainly does not match the template.
+     */
+    public boolean mayMatch( CharSequence timeString ) {
+        return prefilter.mayMatch( timeString, 0, timeString.length() );
+    }
+    
+    /**
+     * return false if the characters from start to end cannot match the template.
+     * @param timeString characters containing the string.
+     * @param start the index of the first character.
+     * @param end the index following the last character.
+     * @return false if the string certainly does not match the template.
+     * @see #mayMatch(java.lang.CharSequence) 
+     */
+    public boolean mayMatch( CharSequence timeString, int start, int end ) {
+        return prefilter.mayMatch( timeString, start, end );
+    }
+    
+    /**
+     * compile the automaton which finds the fields, once the parse plan 
+     * is compiled.  Literal text must match exactly, numeric fields contain 
+     * digits, signs and spaces, and other fields may contain anything.
+     * @return the automaton, or null if the offsets and lengths of all fields are known.
+     */
+    private Automaton compileAutomaton() {
+        boolean allKnown= true;
+        for ( int i=1; i<ndigits; i++ ) {
+            if ( steps[i].offset==-1 || steps[i].length==-1 ) {
+                allKnown= false;
+            }
+        }
+        if ( allKnown ) {
+            return null;
+        }
+        int n= 1;
+        for ( int i=0; i<ndigits; i++ ) {
+            n+= delims[i].length();
+        }
+        List<ValueTrie> tries= new ArrayList<>();
+        for ( int i=1; i<ndigits; i++ ) {
+            n+= 5 + Math.max( 0, steps[i].length );
+            if ( steps[i].enumHandler!=null ) {
+                n+= steps[i].enumHandler.trie.size();
+            }
+        }
+        int[] op= new int[n];
+        int[] arg= new int[n];
+        int[] x= new int[n];
+        int[] y= new int[n];
+        int pc= 0;
+        for ( int j=0; j<delims[0].length(); j++ ) {
+            op[pc]= Automaton.CHAR;
+            arg[pc++]= delims[0].charAt(j);
+        }
+        for ( int i=1; i<ndigits; i++ ) {
+            FieldStep step= steps[i];
+            int cls= ( step.handler<10 || step.handler==11 ) ? Automaton.NUMERIC : Automaton.ANY;
+            op[pc]= Automaton.SAVE;
+            arg[pc++]= 2*i;
+            if ( step.enumHandler!=null ) { // the values, with the shortest preferred
+                ValueTrie trie= step.enumHandler.trie;
+                int base= pc;
+                for ( int j=0; j<trie.size(); j++ ) {
+                    op[pc]= Automaton.TRIE;
+                    arg[pc]= tries.size();
+                    x[pc]= base+trie.size();
+                    y[pc]= base;
+                    pc++;
+                }
+                tries.add( trie );
+            } else if ( step.length!=-1 ) {
+                for ( int j=0; j<step.length; j++ ) {
+                    op[pc]= Automaton.CLASS;
+                    arg[pc++]= cls;
+                }
+            } else if ( cls==Automaton.NUMERIC ) { // one or more, as few as possible
+                int loop= pc;
+                op[pc]= Automaton.CLASS;
+                arg[pc++]= cls;
+                op[pc]= Automaton.SPLIT;
+                x[pc]= pc+1;
+                y[pc]= loop;
+                pc++;
+            } else { // zero or more, as few as possible
+                int loop= pc;
+                op[pc]= Automaton.SPLIT;
+                x[pc]= pc+3;
+                y[pc]= pc+1;
+                pc++;
+                op[pc]= Automaton.CLASS;
+                arg[pc++]= cls;
+                op[pc]= Automaton.JMP;
+                x[pc++]= loop;
+            }
+            op[pc]= Automaton.SAVE;
+            arg[pc++]= 2*i+1;
+            for ( int j=0; j<step.delimAfter.length(); j++ ) {
+                op[pc]= Automaton.CHAR;
+                arg[pc++]= step.delimAfter.charAt(j);
+            }
+        }
+        op[pc++]= Automaton.MATCH;
+        return new Automaton( Arrays.copyOf( op, pc ), Arrays.copyOf( arg, pc ), 
+                Arrays.copyOf( x, pc ), Arrays.copyOf( y, pc ), 
+                tries.toArray( new ValueTrie[tries.size()] ), 2*ndigits );
+    }
+    
+    /**
+     * compile the quick checks which rule out strings before the parse is 
+     * attempted, once the parse plan is compiled.
+     * @return the prefilter
+     */
+    private Prefilter compilePrefilter() {
+        Prefilter result= new Prefilter();
+        result.suffix= delims[ndigits-1];
+        int nliteral= 0;
+        int ndigit= 0;
+        String[] literals= new String[ndigits];
+        int[] literalOffsets= new int[ndigits];
+        int[] digitStart= new int[ndigits];
+        int[] digitEnd= new int[ndigits];
+        int minLength= result.suffix.length();
+        int length= ndigits==1 ? result.suffix.length() : -1;
+        for ( int i=1; i<ndigits; i++ ) { // all the delimiters and the fields of known length must be present.
+            minLength+= steps[i].delimBefore.length() + Math.max( 0, steps[i].length );
+        }
+        for ( int i=1; i<ndigits; i++ ) {
+            FieldStep step= steps[i];
+            if ( step.offset==-1 ) {
+                break; // no offsets are known after this.
+            }
+            if ( step.delimBefore.length()>0 ) {
+                literals[nliteral]= step.delimBefore;
+                literalOffsets[nliteral]= step.offset-step.delimBefore.length();
+                nliteral++;
+            }
+            if ( step.length>=0 ) {
+                minLength= Math.max( minLength, step.offset+step.length );
+                if ( step.handler<10 && step.length>0 ) {
+                    digitStart[ndigit]= step.offset;
+                    digitEnd[ndigit]= step.offset+step.length;
+                    ndigit++;
+                }
+                if ( i==ndigits-1 ) {
+                    length= step.offset + step.length + result.suffix.length();
+                }
+            }
+        }
+        result.minLength= minLength;
+        result.length= length;
+        result.literals= Arrays.copyOf( literals, nliteral );
+        result.literalOffsets= Arrays.copyOf( literalOffsets, nliteral );
+        result.digitStart= Arrays.copyOf( digitStart, ndigit );
+        result.digitEnd= Arrays.copyOf( digitEnd, ndigit );
+        return result;
+    }
+    
+    /**
+     * compile the parse plan, one step for each field, once the offsets, 
+     * lengths, and delimiters are all known.
+     * @param fieldHandlersByDigit the configured handler for each field, or null.
+     * @return the steps, with the zeroth element not used.
+     */
+    private FieldStep[] compileSteps( FieldHandler[] fieldHandlersByDigit ) {
+        FieldStep[] result= new FieldStep[ndigits];
+        for ( int i=1; i<ndigits; i++ ) {
+            FieldStep step= new FieldStep();
+            step.code= fc[i];
+            step.handler= handlers[i];
+            step.fieldHandler= fieldHandlersByDigit[i];
+            if ( step.fieldHandler instanceof EnumFieldHandler ) {
+                step.enumHandler= (EnumFieldHandler)step.fieldHandler;
+            }
+            step.offset= offsets[i];
+            step.length= lengths[i];
+            step.delimBefore= delims[i-1];
+            step.delimAfter= delims[i];
+            Map<String,String> qual= qualifiersMaps[i];
+            String s= qual==null ? null : getArg( qual, "div", null );
+            step.div= s==null ? 1 : (int)Float.parseFloat(s);
+            step.twoDigitYearCentury= twoDigitYearStart / 100;
+            step.twoDigitYearMod= twoDigitYearStart % 100;
+            step.name= qual==null ? "x" : getArg( qual, "name", "x" );
+            step.startsStopTime= i==stopTimeDigit;
+            if ( step.handler>=12 ) {
+                writesExtra= true;
+            }
+            result[i]= step;
+        }
+        List<String> names= new ArrayList<>();
+        for ( int i=1; i<ndigits; i++ ) {
+            FieldStep step= result[i];
+            String name;
+            if ( step.handler==12 ) {
+                name= "ignore";
+            } else if ( step.handler==14 ) {
+                name= "X";
+            } else if ( step.handler==15 ) {
+                name= step.name;
+            } else if ( step.enumHandler!=null ) {
+                name= step.enumHandler.id;
+            } else if ( step.fieldHandler instanceof VersionFieldHandler ) {
+                name= "v";
+            } else if ( step.fieldHandler instanceof IgnoreFieldHandler ) {
+                name= ((IgnoreFieldHandler)step.fieldHandler).name;
+            } else {
+                name= null; // other handlers may put any names, which are kept in the record's map.
+            }
+            if ( name!=null ) {
+                int slot= names.indexOf(name);
+                if ( slot==-1 ) {
+                    slot= names.size();
+                    names.add(name);
+                }
+                step.extraSlot= slot;
+            } else {
+                step.extraSlot= -1;
+            }
+        }
+        extraNames= names.toArray( new String[names.size()] );
+        
+        appendFormat= true;
+        for ( int i=1; i<ndigits; i++ ) {
+            FieldStep step= result[i];
+            Map<String,String> qualm= qualifiersMaps[i];
+            step.formatDelta= 1;
+            step.formatPad= PAD_ZERO;
+            if ( qualm!=null ) {
+                String ddelta= getArg( qualm, "delta", null );
+                if ( ddelta==null ) {
+                    ddelta= getArg( qualm, "span", null );
+                }
+                if ( ddelta!=null ) {
+                    try {
+                        step.formatDelta= Integer.parseInt(ddelta);
+                    } catch ( NumberFormatException ex ) {
+                        step.formatDelta= -1;
+                    }
+                }
+                String pad= getArg( qualm, "pad", null );
+                if ( "space".equals(pad) ) {
+                    step.formatPad= PAD_SPACE;
+                } else if ( "underscore".equals(pad) ) {
+                    step.formatPad= PAD_UNDERSCORE;
+                } else if ( "none".equals(pad) ) {
+                    step.formatPad= PAD_NONE;
+                }
+            }
+            if ( step.handler<10 ) {
+                if ( step.formatDelta<1 || ( step.handler==4 && step.formatDelta>1 ) 
+                        || ( step.length>-1 && ( step.length<1 || step.length>4 ) ) ) {
+                    appendFormat= false;
+                }
+            } else if ( step.handler==13 ) {
+                String cas= getArg( qualm, "case", null );
+                String fmt= getArg( qualm, "fmt", null );
+                step.monthNames= new String[12];
+                for ( int m=1; m<=12; m++ ) {
+                    String ins= "full".equals(fmt) ? TimeUtil.monthNameFull(m) : TimeUtil.monthNameAbbrev(m);
+                    if ( cas==null || cas.equals("lc") ) {
+                        ins= ins.toLowerCase();
+                    } else if ( cas.equals("uc") ) {
+                        ins= ins.toUpperCase();
+                    }
+                    step.monthNames[m-1]= ins;
+                }
+            } else if ( !( step.handler==100 && step.code.equals("v") && step.length<=20 ) ) {
+                appendFormat= false;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * return a new record for the named fields of this template, which can 
+     * be passed as the extra map to parse and format, and reused.  
+     * @return a new record.
+     * @see Extras
+     */
+    public Extras newExtras() {
+        return new Extras( extraNames );
     }
     
     /**
@@ -1513,348 +2741,2300 @@ public class URITemplate {
      * @see #parse(java.lang.String) which can be used when extra arguments are not needed.
      */
     public int[] parse( String timeString, Map<String,String> extra ) throws ParseException {
+        int[] result= new int[NUM_TIME_DIGITS*2];
+        parseInto( timeString, 0, timeString.length(), result, extra );
+        return result;
+    }
+    
+    /**
+     * parse the characters from start to end into the 14-element array
+     * provided, without creating intermediate Strings or arrays.  This is
+     * intended for reading many thousands of file names, where the parse
+     * should be done without creating garbage.  Note that templates with
+     * extension fields like $(enum) or $x will create Strings for these fields.
+     * @param timeString characters containing the string in the format described by the template.
+     * @param start the index of the first character.
+     * @param end the index following the last character.
+     * @param result a 14-element array which will contain [ Y, m, d, H, M, S, nano, Y, m, d, H, M, S, nano ]
+     * @param extra extension results, like $(x,name=sc) appear here, which may be null and may be reused.
+     * @throws ParseException when a number is expected, or patterned not matched.  The 
+     * contents of result and extra are then undefined, since the fields before the failure are written.
+     * @see #parse(java.lang.String, java.util.Map) 
+     * @see #tryParse(java.lang.CharSequence, int, int, int[], java.util.Map, org.hapiserver.URITemplate.ParseStatus) 
+     */
+    public void parseInto( CharSequence timeString, int start, int end, int[] result, 
+            Map<String,String> extra ) throws ParseException {
+        ParseStatus status= parseStatus.get(); // which is only filled in when the parse fails.
+        int code= tryParse( timeString, start, end, result, extra, status );
+        if ( code!=PARSE_OK ) {
+            try {
+                status.throwException();
+            } finally {
+                status.clear();
+            }
+        }
+    }
+    
+    private static final ThreadLocal<ParseStatus> parseStatus= ThreadLocal.withInitial( ParseStatus::new );
+    
+    /**
+     * parse the string into the 14-element array provided, returning a status 
+     * code rather than throwing an exception when the string does not match.
+     * This is intended for scanning directories containing files of other datasets,
+     * where most strings will not match and exceptions would be expensive.
+     * @param timeString the string in the format described by the template.
+     * @param result a 14-element array which will contain [ Y, m, d, H, M, S, nano, Y, m, d, H, M, S, nano ]
+     * @return PARSE_OK, or the reason the string could not be parsed, like PARSE_WRONG_DELIMITER.
+     * @see #tryParse(java.lang.CharSequence, int, int, int[], java.util.Map, org.hapiserver.URITemplate.ParseStatus) 
+     */
+    public int tryParse( CharSequence timeString, int[] result ) {
+        return tryParse( timeString, 0, timeString.length(), result, null, null );
+    }
+    
+    /**
+     * parse the characters from start to end into the 14-element array 
+     * provided, returning a status code rather than throwing an exception 
+     * when the string does not match.  When a status object is provided, it 
+     * records where the parse failed, and a message can be made from it.  
+     * Note an IllegalArgumentException is still thrown when the template 
+     * cannot be used for parsing.
+     * @param timeString characters containing the string in the format described by the template.
+     * @param start the index of the first character.
+     * @param end the index following the last character.
+     * @param result a 14-element array which will contain [ Y, m, d, H, M, S, nano, Y, m, d, H, M, S, nano ]
+     * @param extra extension results, like $(x,name=sc) appear here, which may be null and may be reused.
+     * @param status null or an object which may be reused, to record the details of a failure.
+     * @return PARSE_OK, PARSE_NO_MATCH, PARSE_BAD_DIGIT, PARSE_WRONG_DELIMITER, or PARSE_OUT_OF_RANGE
+     * @see ParseStatus
+     */
+    public int tryParse( CharSequence timeString, int start, int end, int[] result, 
+            Map<String,String> extra, ParseStatus status ) {
         logger.log(Level.FINER, "parse {0}", timeString);
         
-        int offs = 0;
-        int length = 0;
-
-        int[] time;
+        if ( status==null && !prefilter.mayMatch( timeString, start, end ) ) {
+            return PARSE_NO_MATCH;
+        }
         
-        int[] startTime, stopTime;
+        Extras record= null;
+        if ( extra instanceof Extras && ((Extras)extra).names==extraNames ) {
+            record= (Extras)extra;
+            record.clear();
+        } else if ( extra==null && writesExtra ) {
+            extra= new HashMap<>();
+        }
         
-        startTime= new int[NUM_TIME_DIGITS];
-        stopTime= new int[NUM_TIME_DIGITS];
+        int[] bounds= null; // the start and end of each field, when the automaton is used.
+        if ( automaton!=null ) {
+            bounds= automaton.match( timeString, start, end );
+            if ( bounds==null && status==null ) {
+                return PARSE_NO_MATCH;
+            }
+            // when a status is needed, the fields are found again so that the failure can be described.
+        }
         
-        time= startTime;
+        int offs = 0;
+        int length = 0;
+
+        int t= 0; // the index of the time being parsed, 0 or NUM_TIME_DIGITS for the stop time.
         
-        System.arraycopy( context, 0, time, 0, NUM_TIME_DIGITS );
+        System.arraycopy( context, 0, result, 0, NUM_TIME_DIGITS );
 
-        int lastOffset=0;
+        int lastOffset=start;
         int lastLength=0;
         
+        // the day fields, which are checked against the month and year once all fields are read.
+        int startDayDigit= 0, startDayStart= 0, startDayEnd= 0;
+        int stopDayDigit= 0, stopDayStart= 0, stopDayEnd= 0;
+        // the hour fields, since hour 24 is only allowed at the start of the next day.
+        int startHourDigit= 0, startHourStart= 0, startHourEnd= 0;
+        int stopHourDigit= 0, stopHourStart= 0, stopHourEnd= 0;
+        
         for (int idigit = 1; idigit < ndigits; idigit++) {
             
-            if ( idigit==stopTimeDigit ) {
+            FieldStep step= steps[idigit];
+            
+            if ( step.startsStopTime ) {
                 logger.finer("switching to parsing end time");
-                System.arraycopy( time, 0, stopTime, 0, NUM_TIME_DIGITS );
-                time= stopTime;
+                System.arraycopy( result, 0, result, NUM_TIME_DIGITS, NUM_TIME_DIGITS );
+                t= NUM_TIME_DIGITS;
             }
             
-            if (offsets[idigit] != -1) {  // note offsets[0] is always known
-                offs = offsets[idigit];
+            if ( bounds!=null ) {
+                offs= bounds[2*idigit];
+                length= bounds[2*idigit+1] - offs;
             } else {
-                offs += length + this.delims[idigit - 1].length();
-            }
-            if (lengths[idigit] != -1) {
-                length = lengths[idigit];
-            } else {
-                if (this.delims[idigit].equals("")) {
-                    if (idigit == ndigits - 1) {
-                        length = timeString.length() - offs;
-                    } else {
-                        throw new IllegalArgumentException("No delimiter specified after unknown length field, \"" + formatName[handlers[idigit]] + "\", field number=" + (1 + idigit) + "");
-                    }
+                if (step.offset != -1) {  // note offsets[0] is always known
+                    offs = start + step.offset;
                 } else {
-                    while ( offs<timeString.length() && Character.isWhitespace( timeString.charAt(offs) ) ) offs+=1;
-                    if ( offs>=timeString.length() ) {
-                        throw new ParseException( "expected delimiter \"" + this.delims[idigit] + "\" but reached end of string", offs);
-                    }
-                    int i = timeString.indexOf(this.delims[idigit], offs);
-                    if (i == -1) {
-                        throw new ParseException("expected delimiter \"" + this.delims[idigit] + "\"", offs);
+                    offs += length + step.delimBefore.length();
+                }
+                if (step.length != -1) {
+                    length = step.length;
+                } else {
+                    if (step.delimAfter.equals("")) {
+                        if (idigit == ndigits - 1) {
+                            length = end - offs;
+                        } else {
+                            if ( automaton!=null ) { // the automaton handles this, and it found no match.
+                                if ( status!=null ) {
+                                    status.set( PARSE_NO_MATCH, ParseStatus.NOT_MATCHED, idigit, start, spec, step.code, timeString, start, end );
+                                }
+                                return PARSE_NO_MATCH;
+                            }
+                            throw new IllegalArgumentException("No delimiter specified after unknown length field, \"" + formatName[step.handler] + "\", field number=" + (1 + idigit) + "");
+                        }
+                    } else {
+                        while ( offs<end && Character.isWhitespace( timeString.charAt(offs) ) ) offs+=1;
+                        if ( offs>=end ) {
+                            if ( status!=null ) {
+                                status.set( PARSE_WRONG_DELIMITER, ParseStatus.DELIMITER_AT_END, idigit, offs, step.delimAfter, step.code, timeString, offs, offs );
+                            }
+                            return PARSE_WRONG_DELIMITER;
+                        }
+                        int i = indexOf( timeString, step.delimAfter, offs, end );
+                        if (i == -1) {
+                            if ( status!=null ) {
+                                status.set( PARSE_WRONG_DELIMITER, ParseStatus.DELIMITER_NOT_FOUND, idigit, offs, step.delimAfter, step.code, timeString, offs, offs );
+                            }
+                            return PARSE_WRONG_DELIMITER;
+                        }
+                        length = i - offs;
+                        if ( length<0 ) {
+                            throw new IllegalArgumentException("bad state, length should never be less than zero.");
+                        }
                     }
-                    length = i - offs;
-                    if ( length<0 ) {
-                        throw new IllegalArgumentException("bad state, length should never be less than zero.");
+                }
+            
+                if ( offs>end ) {
+                    if ( status!=null ) {
+                        status.set( PARSE_NO_MATCH, ParseStatus.TOO_SHORT, idigit, end, null, step.code, timeString, start, end );
                     }
+                    return PARSE_NO_MATCH;
                 }
-            }
             
-            String foundDelim= timeString.substring(lastOffset+lastLength,offs);
-            if ( !foundDelim.equals(delims[idigit-1]) ) {
-                throw new ParseException("Expected \""+delims[idigit-1]+"\" before $" +fc[idigit]+", got: "+foundDelim,lastOffset);
-            }
+                int lastEnd= lastOffset+lastLength;
+                if ( offs-lastEnd!=step.delimBefore.length() || !regionMatches( timeString, lastEnd, step.delimBefore ) ) {
+                    if ( status!=null ) {
+                        status.set( PARSE_WRONG_DELIMITER, ParseStatus.DELIMITER_BEFORE, idigit, lastOffset, step.delimBefore, step.code, timeString, 
+                            Math.min( lastEnd, offs ), offs );
+                    }
+                    return PARSE_WRONG_DELIMITER;
+                }
             
-            lastOffset= offs;
-            lastLength= length;
+                lastOffset= offs;
+                lastLength= length;
             
-            if ( timeString.length()<offs+length ) {
-                throw new ParseException( "string is too short: "+timeString, timeString.length() );
+                if ( end<offs+length ) {
+                    if ( status!=null ) {
+                        status.set( PARSE_NO_MATCH, ParseStatus.TOO_SHORT, idigit, end, null, step.code, timeString, start, end );
+                    }
+                    return PARSE_NO_MATCH;
+                }
             }
-
-            String field= timeString.substring(offs, offs + length).trim();
-                        
-            logger.log(Level.FINE, "handling \"{0}\" with {1}", new Object[]{field, handlers[idigit]});
             
-            try {
-                Map<String,String> qual= this.qualifiersMaps[idigit];
-                if (handlers[idigit] < 10) {
-                    int digit;
-                    digit= Integer.parseInt(field);
-                    if ( qual!=null ) {
-                        String s= getArg( qual, "div", null );
-                        if ( s!=null ) { 
-                            int div= (int)Float.parseFloat(s); // TODO: we really have to parse this each time?
-                            digit= digit*div;
-                        }
+            if (step.handler < 10) {
+                int fieldStart= offs;
+                int fieldEnd= offs+length;
+                while ( fieldStart<fieldEnd && timeString.charAt(fieldStart)<=' ' ) fieldStart++; // as with String.trim()
+                while ( fieldEnd>fieldStart && timeString.charAt(fieldEnd-1)<=' ' ) fieldEnd--;
+                long value= parseInt( timeString, fieldStart, fieldEnd );
+                if ( value==NOT_AN_INTEGER ) {
+                    if ( status!=null ) {
+                        status.set( PARSE_BAD_DIGIT, ParseStatus.BAD_DIGIT, idigit, offs, null, step.code, timeString, fieldStart, fieldEnd );
                     }
-                    switch (handlers[idigit]) {
-                        case 0:
-                            time[YEAR] = digit;
-                            break;
-                        case 1:
-                            int mod= twoDigitYearStart % 100;
-                            int cent= twoDigitYearStart / 100;
-                            if ( digit>=mod ) {
-                                time[YEAR] = cent * 100 + digit;
-                            } else {
-                                time[YEAR] = (cent+1) * 100 + digit;
-                            }
-                            break;
-                        case 2:
-                            time[MONTH] = 1;
-                            time[DAY] = digit;
-                            break;
-                        case 3:
-                            time[MONTH] = digit;
-                            break;
-                        case 4:
-                            time[DAY] = digit;
-                            break;
-                        case 5:
-                            time[HOUR] = digit;
-                            break;
-                        case 6:
-                            time[MINUTE] = digit;
-                            break;
-                        case 7:
-                            time[SECOND] = digit;
-                            break;
-                        case 8:
-                            time[NANOSECOND] = digit;
-                            break;
-                        default:
-                            throw new IllegalArgumentException("handlers[idigit] was not expected value (which shouldn't happen)");
+                    return PARSE_BAD_DIGIT;
+                }
+                int digit= (int)value * step.div;
+                if ( step.div==1 && !isInRange( step.handler, digit ) ) { // $(j;div=100) counts from 0.
+                    if ( status!=null ) {
+                        status.set( PARSE_OUT_OF_RANGE, ParseStatus.OUT_OF_RANGE, idigit, offs, null, step.code, timeString, fieldStart, fieldEnd );
                     }
-                } else if (handlers[idigit] == 100) {
-                    FieldHandler handler = (FieldHandler) fieldHandlers.get(fc[idigit]);
-                    handler.parse(timeString.substring(offs, offs + length), time, timeWidth, extra );
-                    
-                } else if (handlers[idigit] == 10) { // AM/PM -- code assumes hour has been read already
-                    char ch = timeString.charAt(offs);
-                    if (ch == 'P' || ch == 'p') {
-                        if ( time[HOUR]==12 ) {
-                            // do nothing
-                        } else {
-                            time[HOUR] += 12;
-                        }
-                    } else if (ch == 'A' || ch == 'a') {
-                        if ( time[HOUR]==12 ) {
-                            time[HOUR] -= 12;
+                    return PARSE_OUT_OF_RANGE;
+                }
+                if ( step.handler==2 || step.handler==4 ) {
+                    if ( t==0 ) {
+                        startDayDigit= idigit;
+                        startDayStart= fieldStart;
+                        startDayEnd= fieldEnd;
+                    } else {
+                        stopDayDigit= idigit;
+                        stopDayStart= fieldStart;
+                        stopDayEnd= fieldEnd;
+                    }
+                } else if ( step.handler==5 ) {
+                    if ( t==0 ) {
+                        startHourDigit= idigit;
+                        startHourStart= fieldStart;
+                        startHourEnd= fieldEnd;
+                    } else {
+                        stopHourDigit= idigit;
+                        stopHourStart= fieldStart;
+                        stopHourEnd= fieldEnd;
+                    }
+                }
+                switch (step.handler) {
+                    case 0:
+                        result[t+YEAR] = digit;
+                        break;
+                    case 1:
+                        if ( digit>=step.twoDigitYearMod ) {
+                            result[t+YEAR] = step.twoDigitYearCentury * 100 + digit;
                         } else {
-                            // do nothing
+                            result[t+YEAR] = (step.twoDigitYearCentury+1) * 100 + digit;
                         }
+                        break;
+                    case 2:
+                        result[t+MONTH] = 1;
+                        result[t+DAY] = digit;
+                        break;
+                    case 3:
+                        result[t+MONTH] = digit;
+                        break;
+                    case 4:
+                        result[t+DAY] = digit;
+                        break;
+                    case 5:
+                        result[t+HOUR] = digit;
+                        break;
+                    case 6:
+                        result[t+MINUTE] = digit;
+                        break;
+                    case 7:
+                        result[t+SECOND] = digit;
+                        break;
+                    case 8:
+                        result[t+NANOSECOND] = digit;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("handlers[idigit] was not expected value (which shouldn't happen)");
+                }
+            } else if (step.enumHandler!=null) {
+                int index= step.enumHandler.indexOf( timeString, offs, offs + length );
+                if ( index<0 ) {
+                    if ( status!=null ) {
+                        String field= timeString.subSequence(offs, offs + length).toString();
+                        status.set( PARSE_NO_MATCH, idigit, new ParseException("value is not in enum: "+field,0) );
+                    }
+                    return PARSE_NO_MATCH;
+                }
+                if ( record!=null ) {
+                    record.setIndex( step.extraSlot, step.enumHandler.valueList[index], index );
+                } else {
+                    extra.put( step.enumHandler.id, step.enumHandler.valueList[index] );
+                }
+                
+            } else if (step.handler == 100) {
+                String field= timeString.subSequence(offs, offs + length).toString();
+                try {
+                    if ( t==0 ) {
+                        step.fieldHandler.parse( field, result, timeWidth, extra );
+                    } else {
+                        int[] time= Arrays.copyOfRange( result, t, t+NUM_TIME_DIGITS );
+                        step.fieldHandler.parse( field, time, timeWidth, extra );
+                        System.arraycopy( time, 0, result, t, NUM_TIME_DIGITS );
+                    }
+                } catch ( ParseException ex ) {
+                    if ( status!=null ) {
+                        status.set( PARSE_NO_MATCH, idigit, ex );
+                    }
+                    return PARSE_NO_MATCH;
+                } catch ( RuntimeException ex ) { // NumberFormatException from the handler, as parse reported.
+                    if ( status!=null ) {
+                        status.set( PARSE_BAD_DIGIT, ParseStatus.BAD_DIGIT, idigit, offs, null, step.code, timeString, offs, offs + length );
+                    }
+                    return PARSE_BAD_DIGIT;
+                }
+                
+            } else if (step.handler == 10) { // AM/PM -- code assumes hour has been read already
+                char ch = timeString.charAt(offs);
+                if (ch == 'P' || ch == 'p') {
+                    if ( result[t+HOUR]==12 ) {
+                        // do nothing
+                    } else {
+                        result[t+HOUR] += 12;
                     }
-                } else if (handlers[idigit] == 11) { // TimeZone is not supported, see code elsewhere.
-                    int offset;
-                    offset= Integer.parseInt(timeString.substring(offs, offs + length));
-                    time[HOUR] -= offset / 100;   // careful!
-
-                    time[MINUTE] -= offset % 100;
-                } else if (handlers[idigit] == 12) { // $(ignore)
-                    if ( length>=0 ) {
-                        extra.put( "ignore", timeString.substring(offs, offs + length) );
+                } else if (ch == 'A' || ch == 'a') {
+                    if ( result[t+HOUR]==12 ) {
+                        result[t+HOUR] -= 12;
+                    } else {
+                        // do nothing
+                    }
+                }
+            } else if (step.handler == 11) { // TimeZone is not supported, see code elsewhere.
+                long offset= parseInt( timeString, offs, offs + length );
+                if ( offset==NOT_AN_INTEGER ) {
+                    if ( status!=null ) {
+                        status.set( PARSE_BAD_DIGIT, ParseStatus.BAD_DIGIT, idigit, offs, null, step.code, timeString, offs, offs+length );
                     }
-                } else if (handlers[idigit] == 13) { // month name
-                    time[MONTH] = TimeUtil.monthNumber(timeString.substring(offs, offs + length));
+                    return PARSE_BAD_DIGIT;
+                }
+                result[t+HOUR] -= (int)offset / 100;   // careful!
 
-                } else if (handlers[idigit] == 14) { // "X"
-                    if ( length>=0 ) {
-                        extra.put( "X", timeString.substring(offs, offs + length) );
+                result[t+MINUTE] -= (int)offset % 100;
+            } else if (step.handler == 12) { // $(ignore)
+                if ( length>=0 ) {
+                    if ( record!=null ) {
+                        record.setRegion( step.extraSlot, timeString, offs, offs + length );
+                    } else {
+                        extra.put( "ignore", timeString.subSequence(offs, offs + length).toString() );
+                    }
+                }
+            } else if (step.handler == 13) { // month name
+                int month= TimeUtil.findMonthNumber( timeString, offs, offs + length );
+                if ( month<1 ) {
+                    if ( status!=null ) {
+                        status.set( PARSE_BAD_DIGIT, month==0 ? ParseStatus.MONTH_UNKNOWN : ParseStatus.MONTH_TOO_SHORT, 
+                            idigit, 0, null, step.code, timeString, offs, offs+length );
                     }
-                } else if (handlers[idigit] == 15) { // "x"
-                    String name;
-                    if ( qual!=null ) {
-                        name= getArg( qual, "name", "x" );
+                    return PARSE_BAD_DIGIT;
+                }
+                result[t+MONTH] = month;
+
+            } else if (step.handler == 14) { // "X"
+                if ( length>=0 ) {
+                    if ( record!=null ) {
+                        record.setRegion( step.extraSlot, timeString, offs, offs + length );
                     } else {
-                        name= "x";
+                        extra.put( "X", timeString.subSequence(offs, offs + length).toString() );
                     }
-                    if ( length>=0 ) {
-                        extra.put( name, timeString.substring(offs, offs + length) );
+                }
+            } else if (step.handler == 15) { // "x"
+                if ( length>=0 ) {
+                    if ( record!=null ) {
+                        record.setRegion( step.extraSlot, timeString, offs, offs + length );
+                    } else {
+                        extra.put( step.name, timeString.subSequence(offs, offs + length).toString() );
                     }
                 }
-            } catch ( NumberFormatException ex ) {
-                throw new ParseException( String.format( "fail to parse digit number %d: %s", idigit, field ), offs );
             }
 
         }
-              
-        String foundDelim= timeString.substring(lastOffset+lastLength);
-        if ( !foundDelim.equals(delims[ndigits-1]) ) {
-            throw new ParseException("Expected \""+delims[ndigits-1]+"\" after $" +fc[ndigits-1]+", got: "+foundDelim,lastOffset+lastLength);
+        
+        int lastEnd= lastOffset+lastLength;
+        if ( bounds==null && ( end-lastEnd!=delims[ndigits-1].length() || !regionMatches( timeString, lastEnd, delims[ndigits-1] ) ) ) {
+            if ( status!=null ) {
+                status.set( PARSE_WRONG_DELIMITER, ParseStatus.DELIMITER_AFTER, ndigits-1, lastEnd, delims[ndigits-1], fc[ndigits-1], timeString, lastEnd, end );
+            }
+            return PARSE_WRONG_DELIMITER;
         }
-            
-        if ( this.phasestart!=null ) {
-            if ( timeWidth==null ) {
-                logger.warning("phasestart cannot be used for month or year resolution");
-            } else {
-                if ( timeWidth[1]>0 ) {
-                    startTime[1]= ( ( startTime[1] - this.phasestart[1] ) / timeWidth[1] ) * timeWidth[1] + this.phasestart[1];
-                } else if ( timeWidth[0]>0 ) {
-                    startTime[0]= ( ( startTime[0] - this.phasestart[0] ) / timeWidth[0] ) * timeWidth[0] + this.phasestart[0];
-                } else if ( timeWidth[2]>1 ) {
-                    int phaseStartJulian= TimeUtil.julianDay( phasestart[0], phasestart[1], phasestart[2] );
-                    int ndays= TimeUtil.julianDay( startTime[0], startTime[1], startTime[2] ) - phaseStartJulian;
-                    int ncycles= floorDiv( ndays, timeWidth[2] );
-                    startTime= TimeUtil.fromJulianDay( phaseStartJulian + ncycles * timeWidth[2] );
+        
+        if ( startDayDigit>0 && !isDayInRange( result, 0 ) ) {
+            if ( status!=null ) {
+                status.set( PARSE_OUT_OF_RANGE, ParseStatus.OUT_OF_RANGE, startDayDigit, startDayStart, null, fc[startDayDigit], timeString, startDayStart, startDayEnd );
+            }
+            return PARSE_OUT_OF_RANGE;
+        }
+        if ( stopDayDigit>0 && !isDayInRange( result, NUM_TIME_DIGITS ) ) {
+            if ( status!=null ) {
+                status.set( PARSE_OUT_OF_RANGE, ParseStatus.OUT_OF_RANGE, stopDayDigit, stopDayStart, null, fc[stopDayDigit], timeString, stopDayStart, stopDayEnd );
+            }
+            return PARSE_OUT_OF_RANGE;
+        }
+        if ( startHourDigit>0 && !isHourInRange( result, 0 ) ) {
+            if ( status!=null ) {
+                status.set( PARSE_OUT_OF_RANGE, ParseStatus.OUT_OF_RANGE, startHourDigit, startHourStart, null, fc[startHourDigit], timeString, startHourStart, startHourEnd );
+            }
+            return PARSE_OUT_OF_RANGE;
+        }
+        if ( stopHourDigit>0 && !isHourInRange( result, NUM_TIME_DIGITS ) ) {
+            if ( status!=null ) {
+                status.set( PARSE_OUT_OF_RANGE, ParseStatus.OUT_OF_RANGE, stopHourDigit, stopHourStart, null, fc[stopHourDigit], timeString, stopHourStart, stopHourEnd );
+            }
+            return PARSE_OUT_OF_RANGE;
+        }
+        
+        try {
+            // the stop time is calculated from the start time before the start time is shifted.
+            if ( this.phasestart!=null ) {
+                if ( timeWidth==null ) {
+                    logger.warning("phasestart cannot be used for month or year resolution");
+                    System.arraycopy( result, 0, result, NUM_TIME_DIGITS, NUM_TIME_DIGITS ); // so no stop time is left from a reused array.
                 } else {
-                    logger.log(Level.WARNING, 
-                            "phasestart can only be used when step size is integer number of days greater than 1: {0}", 
-                            TimeUtil.formatIso8601Duration(timeWidth));
+                    if ( timeWidth[1]>0 ) {
+                        result[1]= ( ( result[1] - this.phasestart[1] ) / timeWidth[1] ) * timeWidth[1] + this.phasestart[1];
+                    } else if ( timeWidth[0]>0 ) {
+                        result[0]= ( ( result[0] - this.phasestart[0] ) / timeWidth[0] ) * timeWidth[0] + this.phasestart[0];
+                    } else if ( timeWidth[2]>1 ) {
+                        int phaseStartJulian= TimeUtil.julianDay( phasestart[0], phasestart[1], phasestart[2] );
+                        int ndays= TimeUtil.julianDay( result[0], result[1], result[2] ) - phaseStartJulian;
+                        int ncycles= floorDiv( ndays, timeWidth[2] );
+                        TimeUtil.fromJulianDay( phaseStartJulian + ncycles * timeWidth[2], result, 0 );
+                    } else {
+                        logger.log(Level.WARNING, 
+                                "phasestart can only be used when step size is integer number of days greater than 1: {0}", 
+                                TimeUtil.formatIso8601Duration(timeWidth));
+                    }
+                    addWidth( result );
                 }
-                stopTime= TimeUtil.add( startTime, this.timeWidth );                                    
-            }
-        } else {
-            if ( stopTimeDigit==AFTERSTOP_INIT ) {
-                if ( disallowCarryForStopTime ) {
-                    stopTime= TimeUtil.add( startTime, this.timeWidth  );
-                    if ( this.timeWidth[0]==0 && this.timeWidth[1]==0 && this.timeWidth[2]>1 ) {
-                        stopTime[1]= 1;
-                        stopTime[2]= 1;
+            } else {
+                if ( stopTimeDigit==AFTERSTOP_INIT ) {
+                    if ( disallowCarryForStopTime ) {
+                        addWidth( result );
+                        if ( this.timeWidth[0]==0 && this.timeWidth[1]==0 && this.timeWidth[2]>1 ) {
+                            result[NUM_TIME_DIGITS+1]= 1;
+                            result[NUM_TIME_DIGITS+2]= 1;
+                        }
+                    } else {
+                        addWidth( result );
                     }
-                } else {
-                    stopTime= TimeUtil.add( startTime, this.timeWidth );
                 }
             }
+
+            if ( this.startShift!=null ) {
+                for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
+                    result[i]+= this.startShift[i];
+                }
+            }
+            TimeUtil.normalizeTime( result, 0 );
+
+            if ( this.stopShift!=null ) {
+                for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
+                    result[NUM_TIME_DIGITS+i]+= this.stopShift[i];
+                }
+            }
+            TimeUtil.normalizeTime( result, NUM_TIME_DIGITS );
+            
+        } catch ( IllegalArgumentException ex ) { // TimeUtil limits the year when normalizing
+            if ( status!=null ) {
+                status.set( PARSE_OUT_OF_RANGE, 0, ex );
+            }
+            return PARSE_OUT_OF_RANGE;
         }
         
-        int [] result= new int[NUM_TIME_DIGITS*2];
-        
-        boolean noShift;
-        noShift = this.startShift==null;
-        if ( noShift ) { 
-            System.arraycopy(startTime, 0, result, 0, NUM_TIME_DIGITS);
-            TimeUtil.normalizeTime(result);
+        if ( status!=null ) {
+            status.set( PARSE_OK, ParseStatus.NONE, 0, -1, null, null, null, 0, 0 );
+        }
+        return PARSE_OK;
+    }
+    
+    /**
+     * return true if the value parsed for the digit field handler is within the 
+     * range of the component, so that 2018-56-13 is not carried into a later year.  
+     * Days are only checked against 31 and 366 here, and against the month and 
+     * year by isDayInRange.
+     * @param handler the field handler, 2 for day of year through 8 for nanoseconds.
+     * @param digit the value
+     * @return true if the value is within the range.
+     */
+    private static boolean isInRange( int handler, int digit ) {
+        switch ( handler ) {
+            case 2:
+                return digit>=1 && digit<=366;
+            case 3:
+                return digit>=1 && digit<=12;
+            case 4:
+                return digit>=1 && digit<=31;
+            case 5:
+                return digit>=0 && digit<=24; // 24:00 ends a day, and is checked by isHourInRange.
+            case 6:
+                return digit>=0 && digit<=59;
+            case 7:
+                return digit>=0 && digit<=60; // leap seconds
+            case 8:
+                return digit>=0 && digit<=999999999;
+            default:
+                return true;
+        }
+    }
+    
+    /**
+     * return true if the hour is before 24, or is 24:00 with no minutes, 
+     * seconds or nanoseconds, which is carried to the start of the next day 
+     * when normalizing, so that stop times like $(H;end)=24 are parsed.
+     * @param time the time
+     * @param offset the index of the year, 0 or 7.
+     * @return true if the hour is within the day.
+     */
+    private static boolean isHourInRange( int[] time, int offset ) {
+        return time[offset+HOUR]<24 
+                || ( time[offset+MINUTE]==0 && time[offset+SECOND]==0 && time[offset+NANOSECOND]==0 );
+    }
+    
+    /**
+     * return true if the day of month, or day of year when the month is 1 and 
+     * the day is more than 31, is within the month or year of the time.
+     * @param time the time
+     * @param offset the index of the year, 0 or 7.
+     * @return true if the day is within the month or year.
+     */
+    private static boolean isDayInRange( int[] time, int offset ) {
+        int year= time[offset+YEAR];
+        if ( year<MIN_VALID_YEAR || year>MAX_VALID_YEAR ) {
+            return true; // the year is checked when normalizing.
+        }
+        int month= time[offset+MONTH];
+        int day= time[offset+DAY];
+        if ( month==1 && day>31 ) {
+            return day <= 337 + TimeUtil.daysInMonth( year, 2 );
         } else {
-            for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
-                result[i]= startTime[i] + this.startShift[i];
+            return day <= TimeUtil.daysInMonth( year, month );
+        }
+    }
+    
+    /**
+     * the details of a failed parse, from which a message can be made.  This
+     * can be reused for each parse, and a message is only made when 
+     * getMessage is called.  Note that the message refers to the characters 
+     * which were parsed, so these should not be modified before getMessage is called.
+     * @see #tryParse(java.lang.CharSequence, int, int, int[], java.util.Map, org.hapiserver.URITemplate.ParseStatus) 
+     */
+    public static final class ParseStatus {
+        
+        private static final int NONE= 0;
+        private static final int DELIMITER_AT_END= 1;
+        private static final int DELIMITER_NOT_FOUND= 2;
+        private static final int DELIMITER_BEFORE= 3;
+        private static final int DELIMITER_AFTER= 4;
+        private static final int TOO_SHORT= 5;
+        private static final int BAD_DIGIT= 6;
+        private static final int MONTH_TOO_SHORT= 7;
+        private static final int MONTH_UNKNOWN= 8;
+        private static final int EXCEPTION= 9;
+        private static final int NOT_MATCHED= 10;
+        private static final int OUT_OF_RANGE= 11;
+        
+        private int code;
+        private int kind;
+        private int field;
+        private int position;
+        private String expected;
+        private String fieldCode;
+        private CharSequence source;
+        private int regionStart;
+        private int regionEnd;
+        private Exception exception;
+        
+        /**
+         * create a status object, which can be reused.
+         */
+        public ParseStatus() {
+            this.code= PARSE_OK;
+        }
+        
+        private void set( int code, int kind, int field, int position, String expected, String fieldCode, 
+                CharSequence source, int regionStart, int regionEnd ) {
+            this.code= code;
+            this.kind= kind;
+            this.field= field;
+            this.position= position;
+            this.expected= expected;
+            this.fieldCode= fieldCode;
+            this.source= source;
+            this.regionStart= regionStart;
+            this.regionEnd= regionEnd;
+            this.exception= null;
+        }
+        
+        /**
+         * reset the status, so that it holds no reference to the characters parsed.
+         */
+        private void clear() {
+            set( PARSE_OK, NONE, 0, 0, null, null, null, 0, 0 );
+        }
+        
+        private void set( int code, int field, Exception ex ) {
+            set( code, EXCEPTION, field, 0, null, null, null, 0, 0 );
+            if ( ex instanceof ParseException ) {
+                this.position= ((ParseException)ex).getErrorOffset();
             }
-            TimeUtil.normalizeTime(result);
+            this.exception= ex;
         }
         
-        noShift = this.stopShift==null;
-        if ( noShift ) {     
-            TimeUtil.normalizeTime(stopTime);
-            System.arraycopy(stopTime, 0, result, NUM_TIME_DIGITS, NUM_TIME_DIGITS);
-        } else {
-            int[] resultStop= new int[NUM_TIME_DIGITS];
-            for ( int i= 0; i<NUM_TIME_DIGITS; i++ ) {
-                resultStop[i]= stopTime[i] + this.stopShift[i];
+        /**
+         * return the status code, like PARSE_OK or PARSE_BAD_DIGIT.
+         * @return the status code.
+         */
+        public int getCode() {
+            return code;
+        }
+        
+        /**
+         * return the number of the field where the parse failed, where 1 is the first field, 
+         * or 0 if the failure is not in a field.
+         * @return the field number.
+         */
+        public int getField() {
+            return field;
+        }
+        
+        /**
+         * return the position of the failure in the characters, as in ParseException.getErrorOffset.
+         * @return the position.
+         */
+        public int getPosition() {
+            return position;
+        }
+        
+        /**
+         * return a message describing the failure, or null if the parse was successful.
+         * @return the message.
+         */
+        public String getMessage() {
+            switch ( kind ) {
+                case NONE:
+                    return null;
+                case DELIMITER_AT_END:
+                    return "expected delimiter \"" + expected + "\" but reached end of string";
+                case DELIMITER_NOT_FOUND:
+                    return "expected delimiter \"" + expected + "\"";
+                case DELIMITER_BEFORE:
+                    return "Expected \""+expected+"\" before $" +fieldCode+", got: "+found();
+                case DELIMITER_AFTER:
+                    return "Expected \""+expected+"\" after $" +fieldCode+", got: "+found();
+                case TOO_SHORT:
+                    return "string is too short: "+found();
+                case BAD_DIGIT:
+                    return String.format( "fail to parse digit number %d: %s", field, found() );
+                case MONTH_TOO_SHORT:
+                    return "need at least three letters";
+                case MONTH_UNKNOWN:
+                    return "Unable to parse month";
+                case EXCEPTION:
+                    return exception.getMessage();
+                case NOT_MATCHED:
+                    return "string does not match the template \""+expected+"\": "+found();
+                case OUT_OF_RANGE:
+                    return String.format( "digit number %d is out of range for $%s: %s", field, fieldCode, found() );
+                default:
+                    throw new IllegalArgumentException("bad kind");
             }
-            TimeUtil.normalizeTime(resultStop);
-            System.arraycopy(resultStop, 0, result, NUM_TIME_DIGITS, NUM_TIME_DIGITS);
         }
         
-        return result;
+        /**
+         * return the characters found where the failure occurred.
+         * @return the characters.
+         */
+        private String found() {
+            return source.subSequence( regionStart, regionEnd ).toString();
+        }
+        
+        /**
+         * throw the exception which parse would have thrown.
+         * @throws ParseException 
+         */
+        private void throwException() throws ParseException {
+            if ( exception instanceof ParseException ) {
+                throw (ParseException)exception;
+            } else if ( exception instanceof RuntimeException ) {
+                throw (RuntimeException)exception;
+            } else {
+                throw new ParseException( getMessage(), position );
+            }
+        }
         
+        @Override
+        public String toString() {
+            return code==PARSE_OK ? "ok" : getMessage();
+        }
     }
     
     /**
-     * return the number of digits, starting with the year, which must be
-     * provided by some external context.  For example, data_$j.dat has an
-     * external context of 1 because there is no year field, and data_$d.dat
-     * would be 2 because the year and month are provided externally.  Note
-     * the modifier Y= can be used to provide the context within the 
-     * URI template.
-     * @return the external context implied by the template.
+     * set the stop time of the 14-element range to the start time plus timeWidth, 
+     * as TimeUtil.add does.
+     * @param range the range, with the start time set.
      */
-    public int getExternalContext() {
-        return externalContext;
+    private void addWidth( int[] range ) {
+        for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
+            range[NUM_TIME_DIGITS+i]= range[i] + this.timeWidth[i];
+        }
+        TimeUtil.normalizeTime( range, NUM_TIME_DIGITS );
     }
     
     /**
-     * set the context time.  The number of digits copied from 
-     * externalContextTime is determined by the state of externalContext.
-     * @param externalContextTime the context in [ Y, m, d, H, M, S, nanos ]
+     * parse the bytes from start to end, such as a line of a directory listing 
+     * or manifest file, into the 14-element array provided, without first 
+     * decoding the bytes into a String.  The bytes are ASCII or UTF-8, and when 
+     * the template itself contains non-ASCII characters the bytes are decoded 
+     * as UTF-8 before parsing.  Positions reported in a ParseException are 
+     * byte offsets.
+     * @param bytes the bytes containing the string in the format described by the template.
+     * @param start the index of the first byte.
+     * @param end the index following the last byte.
+     * @param result a 14-element array which will contain [ Y, m, d, H, M, S, nano, Y, m, d, H, M, S, nano ]
+     * @param extra extension results, like $(x,name=sc) appear here, which may be null and may be reused.
+     * @throws ParseException when a number is expected, or patterned not matched.
+     * @see #parseInto(java.lang.CharSequence, int, int, int[], java.util.Map) 
      */
-    public void setContext( int[] externalContextTime ) {
-        System.arraycopy(externalContextTime, 0, context, 0, externalContext);
+    public void parseInto( byte[] bytes, int start, int end, int[] result, 
+            Map<String,String> extra ) throws ParseException {
+        if ( specIsAscii ) {
+            parseInto( new AsciiCharSequence( bytes, null, 0, bytes.length ), start, end, result, extra );
+        } else {
+            String s= new String( bytes, start, end-start, StandardCharsets.UTF_8 );
+            try {
+                parseInto( s, 0, s.length(), result, extra );
+            } catch ( ParseException ex ) {
+                throw atByteOffset( ex, s, start );
+            }
+        }
     }
     
     /**
-     * For convenience, add API to match that suggested by 
-     * https://github.com/hapi-server/uri-templates/blob/master/formatting.json .
-     * Note if start and end appear in the template, then just one formatted
-     * range is returned.
-     * @param template the template
-     * @param startTimeStr the beginning of the interval to cover
-     * @param stopTimeStr the end of the interval to cover
-     * @return the formatted times which cover the span.
+     * return the exception with its position, a character index in the 
+     * decoded string, changed to the byte offset of that character.
+     * @param ex the exception thrown parsing the string.
+     * @param s the string decoded from UTF-8.
+     * @param start the byte offset of the string.
+     * @return the exception with the byte offset.
+     */
+    private static ParseException atByteOffset( ParseException ex, String s, int start ) {
+        int pos= Math.max( 0, Math.min( ex.getErrorOffset(), s.length() ) );
+        int offs= start;
+        for ( int i=0; i<pos; i++ ) {
+            char c= s.charAt(i);
+            if ( c<0x80 ) {
+                offs+= 1;
+            } else if ( c<0x800 || Character.isSurrogate(c) ) { // each half of a pair is two of the four bytes.
+                offs+= 2;
+            } else {
+                offs+= 3;
+            }
+        }
+        ParseException result= new ParseException( ex.getMessage(), offs );
+        result.initCause( ex );
+        return result;
+    }
+    
+    /**
+     * parse the bytes between the buffer's position and limit into the 
+     * 14-element array provided.  The buffer's position is not changed.
+     * @param buffer the buffer containing the string in the format described by the template.
+     * @param result a 14-element array which will contain [ Y, m, d, H, M, S, nano, Y, m, d, H, M, S, nano ]
+     * @param extra extension results, like $(x,name=sc) appear here, which may be null and may be reused.
      * @throws ParseException when a number is expected, or patterned not matched.
+     * @see #parseInto(byte[], int, int, int[], java.util.Map) 
      */
-    public static String[] formatRange( String template, String startTimeStr, String stopTimeStr ) throws ParseException {
-        return formatRange( template, startTimeStr, stopTimeStr, Collections.EMPTY_MAP );
+    public void parseInto( ByteBuffer buffer, int[] result, Map<String,String> extra ) throws ParseException {
+        int start= buffer.position();
+        int end= buffer.limit();
+        if ( buffer.hasArray() ) {
+            int arrayOffset= buffer.arrayOffset();
+            parseInto( buffer.array(), arrayOffset+start, arrayOffset+end, result, extra );
+        } else if ( specIsAscii ) {
+            parseInto( new AsciiCharSequence( null, buffer, 0, end ), start, end, result, extra );
+        } else {
+            byte[] bytes= new byte[end-start];
+            buffer.duplicate().get( bytes );
+            String s= new String( bytes, StandardCharsets.UTF_8 );
+            try {
+                parseInto( s, 0, s.length(), result, extra );
+            } catch ( ParseException ex ) {
+                throw atByteOffset( ex, s, start );
+            }
+        }
+    }
+    
+    /**
+     * view of ASCII bytes as characters, so that bytes can be parsed as a 
+     * CharSequence.  Bytes above 127 map to characters which will not match 
+     * the ASCII template, and Strings made from the view are decoded as UTF-8, 
+     * so that $x fields containing UTF-8 are handled properly.
+     */
+    private static final class AsciiCharSequence implements CharSequence {
+        
+        private final byte[] bytes;
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int length;
+        
+        /**
+         * create the view, backed by either the bytes or the buffer.
+         * @param bytes the bytes, or null if the buffer is used.
+         * @param buffer the buffer, or null if the bytes are used.
+         * @param offset the index of the first byte of the view.
+         * @param length the number of bytes in the view.
+         */
+        AsciiCharSequence( byte[] bytes, ByteBuffer buffer, int offset, int length ) {
+            this.bytes= bytes;
+            this.buffer= buffer;
+            this.offset= offset;
+            this.length= length;
+        }
+        
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if ( index<0 || index>=length ) {
+                throw new IndexOutOfBoundsException("index out of bounds: "+index);
+            }
+            if ( bytes!=null ) {
+                return (char)( bytes[offset+index] & 0xFF );
+            } else {
+                return (char)( buffer.get(offset+index) & 0xFF );
+            }
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if ( start<0 || end>length || start>end ) {
+                throw new IndexOutOfBoundsException("bad subsequence: "+start+","+end);
+            }
+            return new AsciiCharSequence( bytes, buffer, offset+start, end-start );
+        }
+
+        @Override
+        public String toString() {
+            if ( bytes!=null ) {
+                return new String( bytes, offset, length, StandardCharsets.UTF_8 );
+            } else {
+                byte[] bb= new byte[length];
+                for ( int i=0; i<length; i++ ) {
+                    bb[i]= buffer.get(offset+i);
+                }
+                return new String( bb, StandardCharsets.UTF_8 );
+            }
+        }
+        
+    }
+    
+    /**
+     * record of the named fields of a template, like $(x;name=sc), 
+     * $(enum;id=sc) and $v, where each name has a fixed slot so that 
+     * values are found by index rather than by hashing.  This is a Map, so 
+     * it can be passed as the extra argument to parse and format, and each 
+     * parse clears it first.  Field content is kept as the characters 
+     * parsed, and a String is only made when it is read, so the characters 
+     * must not change until the values are read, or materialize is called.  
+     * Names which the template does not know, put by custom field handlers, 
+     * are kept in an ordinary map.  For example:<pre>
+     *   URITemplate ut= new URITemplate("$(x;name=sc)_$Y$m$d.dat");
+     *   Extras extras= ut.newExtras();
+     *   int sc= extras.getSlot("sc");
+     *   ut.parse( "a_20050101.dat", extras );
+     *   String v= extras.getString(sc); // "a"
+     * </pre>
+     * @see URITemplate#newExtras() 
+     */
+    public static final class Extras extends AbstractMap<String,String> {
+        
+        private final String[] names;
+        private final String[] values;
+        private final CharSequence[] sources;
+        private final int[] starts;
+        private final int[] ends;
+        private final int[] indexes;
+        private Map<String,String> others;
+        
+        private Extras( String[] names ) {
+            this.names= names;
+            int n= names.length;
+            this.values= new String[n];
+            this.sources= new CharSequence[n];
+            this.starts= new int[n];
+            this.ends= new int[n];
+            this.indexes= new int[n];
+            Arrays.fill( indexes, -1 );
+        }
+        
+        /**
+         * return the number of slots.
+         * @return the number of slots.
+         */
+        public int getSlotCount() {
+            return names.length;
+        }
+        
+        /**
+         * return the slot for the name.  
+         * @param name the name, like "sc"
+         * @return the slot, or -1 if the template has no field with the name.
+         */
+        public int getSlot( Object name ) {
+            for ( int i=0; i<names.length; i++ ) {
+                if ( names[i]==name ) return i;
+            }
+            for ( int i=0; i<names.length; i++ ) {
+                if ( names[i].equals(name) ) return i;
+            }
+            return -1;
+        }
+        
+        /**
+         * return the name of the slot.
+         * @param slot the slot
+         * @return the name
+         */
+        public String getName( int slot ) {
+            return names[slot];
+        }
+        
+        /**
+         * return true if the slot has a value.
+         * @param slot the slot
+         * @return true if the slot has a value.
+         */
+        public boolean isSet( int slot ) {
+            return values[slot]!=null || sources[slot]!=null;
+        }
+        
+        /**
+         * return the value of the slot, making the String if it has not been made.
+         * @param slot the slot
+         * @return the value, or null if the slot has no value.
+         */
+        public String getString( int slot ) {
+            if ( values[slot]==null && sources[slot]!=null ) {
+                values[slot]= sources[slot].subSequence( starts[slot], ends[slot] ).toString();
+                sources[slot]= null;
+            }
+            return values[slot];
+        }
+        
+        /**
+         * return the value of the slot as an integer, without making a String.
+         * @param slot the slot
+         * @return the integer value
+         * @throws NumberFormatException when the slot has no value or it is not an integer.
+         */
+        public int getInt( int slot ) {
+            if ( sources[slot]!=null ) {
+                long v= parseInt( sources[slot], starts[slot], ends[slot] );
+                if ( v==NOT_AN_INTEGER || v<Integer.MIN_VALUE || v>Integer.MAX_VALUE ) {
+                    throw new NumberFormatException( "slot "+names[slot]+" is not an integer: "+getString(slot) );
+                }
+                return (int)v;
+            } else {
+                String v= values[slot];
+                if ( v==null ) {
+                    throw new NumberFormatException( "slot "+names[slot]+" has no value" );
+                }
+                return Integer.parseInt( v.trim() );
+            }
+        }
+        
+        /**
+         * return the value of the slot as a number, like 1.20 for a version.
+         * @param slot the slot
+         * @return the value
+         * @throws NumberFormatException when the slot has no value or it is not a number.
+         */
+        public double getDouble( int slot ) {
+            String v= getString(slot);
+            if ( v==null ) {
+                throw new NumberFormatException( "slot "+names[slot]+" has no value" );
+            }
+            return Double.parseDouble(v);
+        }
+        
+        /**
+         * return the index of the enumeration value in the slot, so that 
+         * the value need not be compared or hashed.
+         * @param slot the slot
+         * @return the index into the enumeration's values, or -1 if the slot is not set by an enumeration.
+         * @see EnumFieldHandler#getValues() 
+         */
+        public int getIndex( int slot ) {
+            return indexes[slot];
+        }
+        
+        /**
+         * set the value of the slot.
+         * @param slot the slot
+         * @param value the value, or null to clear the slot.
+         */
+        public void setString( int slot, String value ) {
+            values[slot]= value;
+            sources[slot]= null;
+            indexes[slot]= -1;
+        }
+        
+        /**
+         * set the value of the slot to the characters, without making a String.
+         */
+        void setRegion( int slot, CharSequence source, int start, int end ) {
+            values[slot]= null;
+            sources[slot]= source;
+            starts[slot]= start;
+            ends[slot]= end;
+            indexes[slot]= -1;
+        }
+        
+        /**
+         * set the value of the slot to an enumeration value.
+         */
+        void setIndex( int slot, String value, int index ) {
+            values[slot]= value;
+            sources[slot]= null;
+            indexes[slot]= index;
+        }
+        
+        /**
+         * make Strings of all the values, so that the characters parsed may be changed.
+         */
+        public void materialize() {
+            for ( int i=0; i<names.length; i++ ) {
+                getString(i);
+            }
+        }
+        
+        @Override
+        public String get( Object key ) {
+            int slot= getSlot(key);
+            if ( slot>-1 ) {
+                return getString(slot);
+            } else {
+                return others==null ? null : others.get(key);
+            }
+        }
+
+        @Override
+        public boolean containsKey( Object key ) {
+            int slot= getSlot(key);
+            if ( slot>-1 ) {
+                return isSet(slot);
+            } else {
+                return others!=null && others.containsKey(key);
+            }
+        }
+        
+        @Override
+        public String put( String key, String value ) {
+            int slot= getSlot(key);
+            if ( slot>-1 ) {
+                String old= getString(slot);
+                setString( slot, value );
+                return old;
+            } else {
+                if ( others==null ) others= new LinkedHashMap<>();
+                return others.put( key, value );
+            }
+        }
+
+        @Override
+        public String remove( Object key ) {
+            int slot= getSlot(key);
+            if ( slot>-1 ) {
+                String old= getString(slot);
+                setString( slot, null );
+                return old;
+            } else {
+                return others==null ? null : others.remove(key);
+            }
+        }
+        
+        @Override
+        public void clear() {
+            Arrays.fill( values, null );
+            Arrays.fill( sources, null );
+            Arrays.fill( indexes, -1 );
+            if ( others!=null ) others.clear();
+        }
+        
+        @Override
+        public int size() {
+            int n= others==null ? 0 : others.size();
+            for ( int i=0; i<names.length; i++ ) {
+                if ( isSet(i) ) n++;
+            }
+            return n;
+        }
+        
+        @Override
+        public Set<Entry<String,String>> entrySet() {
+            Map<String,String> result= new LinkedHashMap<>();
+            for ( int i=0; i<names.length; i++ ) {
+                if ( isSet(i) ) result.put( names[i], getString(i) );
+            }
+            if ( others!=null ) result.putAll( others );
+            return Collections.unmodifiableMap(result).entrySet();
+        }
+    }
+    
+    /**
+     * time ranges parsed from many strings, kept as columns rather than 
+     * as one array per string, so that they can be sorted and indexed 
+     * without creating objects.  The start and stop times are the number of 
+     * (non-leap) nanoseconds since 1970-01-01T00:00Z, and the status column
+     * is PARSE_OK when the string was parsed, PARSE_OUT_OF_RANGE when the time 
+     * cannot be represented as nanoseconds since 1970 (years 1678 through 2261),
+     * or another status from tryParse, like PARSE_WRONG_DELIMITER, when it 
+     * does not match the template.
+     * @see #parseBatch(java.util.List) 
+     */
+    public static final class RangeBatch {
+        
+        private final long[] start;
+        private final long[] stop;
+        private final int[] status;
+        
+        private RangeBatch( int size ) {
+            this.start= new long[size];
+            this.stop= new long[size];
+            this.status= new int[size];
+        }
+        
+        /**
+         * return the number of rows.
+         * @return the number of rows.
+         */
+        public int size() {
+            return status.length;
+        }
+        
+        /**
+         * return the start times, as nanoseconds since 1970.  This is not a copy, and
+         * elements are only valid where the status is PARSE_OK.
+         * @return the start time for each row.
+         */
+        public long[] getStart() {
+            return start;
+        }
+        
+        /**
+         * return the stop times, as nanoseconds since 1970.  This is not a copy, and
+         * elements are only valid where the status is PARSE_OK.
+         * @return the stop time for each row.
+         */
+        public long[] getStop() {
+            return stop;
+        }
+
+        /**
+         * return the status of each row, such as PARSE_OK.  This is not a copy.
+         * @return the status of each row.
+         */
+        public int[] getStatus() {
+            return status;
+        }
+        
+        /**
+         * return the number of rows which were parsed.
+         * @return the number of rows with status PARSE_OK.
+         */
+        public int getParsedCount() {
+            int count= 0;
+            for ( int i=0; i<status.length; i++ ) {
+                if ( status[i]==PARSE_OK ) count++;
+            }
+            return count;
+        }
+        
+        /**
+         * return the time range of the row as a 14-element array.
+         * @param row the row, which must have the status PARSE_OK.
+         * @param result a 14-element array, or null.
+         * @return 14 element array [ Y, m, d, H, M, S, nano, Y, m, d, H, M, S, nano ]
+         * @throws IllegalArgumentException if the row was not parsed.
+         */
+        public int[] getTimeRange( int row, int[] result ) {
+            if ( status[row]!=PARSE_OK ) {
+                throw new IllegalArgumentException("row was not parsed: "+row);
+            }
+            if ( result==null ) {
+                result= new int[NUM_TIME_DIGITS*2];
+            }
+            TimeUtil.fromNanosecondsSince1970( start[row], result, 0 );
+            TimeUtil.fromNanosecondsSince1970( stop[row], result, NUM_TIME_DIGITS );
+            return result;
+        }
+    }
+    
+    /**
+     * parse the string into start and stop times as (non-leap) nanoseconds 
+     * since 1970-01-01T00:00Z, calculated from the parsed fields rather than 
+     * through an ISO8601 string.
+     * @param timeString the string in the format described by the template.
+     * @param extra extension results, like $(x,name=sc) appear here, which may be null.
+     * @return two-element array, the start and stop times.
+     * @throws ParseException when the string does not match the template.
+     * @throws IllegalArgumentException when a year is outside of 1678 to 2261.
+     * @see TimeUtil#toNanosecondsSince1970(int[], int) 
+     */
+    public long[] parseNanoseconds( CharSequence timeString, Map<String,String> extra ) throws ParseException {
+        int[] range= new int[TimeUtil.TIME_RANGE_DIGITS];
+        parseInto( timeString, 0, timeString.length(), range, extra );
+        return new long[] { TimeUtil.toNanosecondsSince1970( range, 0 ), 
+            TimeUtil.toNanosecondsSince1970( range, NUM_TIME_DIGITS ) };
+    }
+    
+    /**
+     * parse the string into start and stop times as (non-leap) nanoseconds 
+     * since 1970-01-01T00:00Z, putting them in the array at offset and 
+     * offset+1, and returning a status code rather than throwing an exception.
+     * @param timeString the string in the format described by the template.
+     * @param result the array for the start and stop times.
+     * @param offset the index of the start time in the array.
+     * @return PARSE_OK, PARSE_OUT_OF_RANGE when a year is outside of 1678 to 2261, or the reason the string could not be parsed.
+     */
+    public int tryParseNanoseconds( CharSequence timeString, long[] result, int offset ) {
+        int[] range= new int[TimeUtil.TIME_RANGE_DIGITS];
+        int code= tryParse( timeString, 0, timeString.length(), range, null, null );
+        if ( code!=PARSE_OK ) {
+            return code;
+        }
+        if ( !isNanosecondsRange( range ) ) {
+            return PARSE_OUT_OF_RANGE;
+        }
+        result[offset]= TimeUtil.toNanosecondsSince1970( range, 0 );
+        result[offset+1]= TimeUtil.toNanosecondsSince1970( range, NUM_TIME_DIGITS );
+        return PARSE_OK;
+    }
+    
+    /**
+     * return true if both the start and stop years of the time range can be 
+     * represented as nanoseconds since 1970.
+     * @param range the fourteen-component time range.
+     * @return true if both years are within 1678 to 2261.
+     */
+    private static boolean isNanosecondsRange( int[] range ) {
+        return range[0]>=TimeUtil.NANOSECONDS_SINCE_1970_FIRST_YEAR 
+                && range[0]<=TimeUtil.NANOSECONDS_SINCE_1970_LAST_YEAR 
+                && range[NUM_TIME_DIGITS]>=TimeUtil.NANOSECONDS_SINCE_1970_FIRST_YEAR 
+                && range[NUM_TIME_DIGITS]<=TimeUtil.NANOSECONDS_SINCE_1970_LAST_YEAR;
+    }
+    
+    /**
+     * parse the string into start and stop times as (non-leap) milliseconds 
+     * since 1970-01-01T00:00Z, calculated from the parsed fields rather than 
+     * through an ISO8601 string.  Fractions of a millisecond are truncated.
+     * @param timeString the string in the format described by the template.
+     * @param extra extension results, like $(x,name=sc) appear here, which may be null.
+     * @return two-element array, the start and stop times.
+     * @throws ParseException when the string does not match the template.
+     * @see TimeUtil#toMillisecondsSince1970(int[], int) 
+     */
+    public long[] parseMilliseconds( CharSequence timeString, Map<String,String> extra ) throws ParseException {
+        int[] range= new int[TimeUtil.TIME_RANGE_DIGITS];
+        parseInto( timeString, 0, timeString.length(), range, extra );
+        return new long[] { TimeUtil.toMillisecondsSince1970( range, 0 ), 
+            TimeUtil.toMillisecondsSince1970( range, NUM_TIME_DIGITS ) };
+    }
+    
+    /**
+     * parse the string into start and stop times as (non-leap) milliseconds 
+     * since 1970-01-01T00:00Z, putting them in the array at offset and 
+     * offset+1, and returning a status code rather than throwing an exception.
+     * @param timeString the string in the format described by the template.
+     * @param result the array for the start and stop times.
+     * @param offset the index of the start time in the array.
+     * @return PARSE_OK, or the reason the string could not be parsed.
+     */
+    public int tryParseMilliseconds( CharSequence timeString, long[] result, int offset ) {
+        int[] range= new int[TimeUtil.TIME_RANGE_DIGITS];
+        int code= tryParse( timeString, 0, timeString.length(), range, null, null );
+        if ( code!=PARSE_OK ) {
+            return code;
+        }
+        result[offset]= TimeUtil.toMillisecondsSince1970( range, 0 );
+        result[offset+1]= TimeUtil.toMillisecondsSince1970( range, NUM_TIME_DIGITS );
+        return PARSE_OK;
+    }
+    
+    /**
+     * parse each of the strings, returning the time ranges in columns.  Strings
+     * which do not match the template are marked in the status column, and
+     * extension fields like $(enum) are not kept.
+     * @param timeStrings strings in the format described by the template.
+     * @return the time ranges, as nanoseconds since 1970, and the status of each row.
+     * @see RangeBatch
+     */
+    public RangeBatch parseBatch( List<? extends CharSequence> timeStrings ) {
+        RangeBatch result= new RangeBatch( timeStrings.size() );
+        int[] range= new int[NUM_TIME_DIGITS*2];
+        Map<String,String> extra= writesExtra ? new HashMap<>() : null;
+        int i=0;
+        for ( CharSequence timeString : timeStrings ) {
+            int code= tryParse( timeString, 0, timeString.length(), range, extra, null );
+            if ( code!=PARSE_OK ) {
+                result.status[i]= code;
+            } else if ( !isNanosecondsRange( range ) ) {
+                result.status[i]= PARSE_OUT_OF_RANGE;
+            } else {
+                result.start[i]= TimeUtil.toNanosecondsSince1970( range, 0 );
+                result.stop[i]= TimeUtil.toNanosecondsSince1970( range, NUM_TIME_DIGITS );
+                result.status[i]= PARSE_OK;
+            }
+            if ( extra!=null ) {
+                extra.clear();
+            }
+            i++;
+        }
+        return result;
+    }
+    
+    /**
+     * return the index of the string within the characters from start to end, or -1.
+     * @param s the characters
+     * @param target the string to find
+     * @param start the index to start looking
+     * @param end the index following the last character which may be used.
+     * @return the index of the string, or -1 if it is not found.
+     */
+    private static int indexOf( CharSequence s, String target, int start, int end ) {
+        int n= target.length();
+        int last= end - n;
+        char c0= target.charAt(0);
+        for ( int i=start; i<=last; i++ ) {
+            if ( s.charAt(i)==c0 && regionMatches( s, i, target ) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * return true if the string is found in the characters at the offset.  The caller
+     * must ensure that there are enough characters.
+     * @param s the characters
+     * @param offset the index to look
+     * @param target the string
+     * @return true if the string is found at the offset.
+     */
+    private static boolean regionMatches( CharSequence s, int offset, String target ) {
+        for ( int j=0; j<target.length(); j++ ) {
+            if ( s.charAt(offset+j)!=target.charAt(j) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * value returned by parseInt when the characters are not an integer.
+     */
+    private static final long NOT_AN_INTEGER= Long.MIN_VALUE;
+    
+    /**
+     * parse the decimal integer found in the characters from start to end, 
+     * as Integer.parseInt does, but without creating a String or throwing 
+     * an exception.
+     * @param s the characters
+     * @param start the index of the first character
+     * @param end the index following the last character
+     * @return the integer, or NOT_AN_INTEGER when the characters are not an integer.
+     */
+    private static long parseInt( CharSequence s, int start, int end ) {
+        if ( start>=end ) {
+            return NOT_AN_INTEGER;
+        }
+        boolean negative= false;
+        char c= s.charAt(start);
+        if ( c=='-' || c=='+' ) {
+            negative= c=='-';
+            start++;
+            if ( start==end ) {
+                return NOT_AN_INTEGER;
+            }
+        }
+        long result= 0;
+        for ( int i=start; i<end; i++ ) {
+            int d= Character.digit( s.charAt(i), 10 );
+            if ( d<0 ) {
+                return NOT_AN_INTEGER;
+            }
+            result= result * 10 + d;
+            if ( result>2147483648L ) {
+                return NOT_AN_INTEGER;
+            }
+        }
+        if ( negative ) {
+            return -result;
+        } else if ( result>Integer.MAX_VALUE ) {
+            return NOT_AN_INTEGER;
+        } else {
+            return result;
+        }
+    }
+    
+    /**
+     * return the number of digits, starting with the year, which must be
+     * provided by some external context.  For example, data_$j.dat has an
+     * external context of 1 because there is no year field, and data_$d.dat
+     * would be 2 because the year and month are provided externally.  Note
+     * the modifier Y= can be used to provide the context within the 
+     * URI template.
+     * @return the external context implied by the template.
+     */
+    public int getExternalContext() {
+        return externalContext;
+    }
+    
+    /**
+     * set the context time.  The number of digits copied from 
+     * externalContextTime is determined by the state of externalContext.
+     * @param externalContextTime the context in [ Y, m, d, H, M, S, nanos ]
+     */
+    public void setContext( int[] externalContextTime ) {
+        System.arraycopy(externalContextTime, 0, context, 0, externalContext);
+    }
+    
+    /**
+     * For convenience, add API to match that suggested by 
+     * https://github.com/hapi-server/uri-templates/blob/master/formatting.json .
+     * Note if start and end appear in the template, then just one formatted
+     * range is returned.
+     * @param template the template
+     * @param startTimeStr the beginning of the interval to cover
+     * @param stopTimeStr the end of the interval to cover
+     * @return the formatted times which cover the span.
+     * @throws ParseException when a number is expected, or patterned not matched.
+     */
+    public static String[] formatRange( String template, String startTimeStr, String stopTimeStr ) throws ParseException {
+        return formatRange( template, startTimeStr, stopTimeStr, Collections.EMPTY_MAP );
+    }
+        
+    /**
+     * For convenience, add API to match that suggested by 
+     * https://github.com/hapi-server/uri-templates/blob/master/formatting.json,
+     * and allowing for extra named fields to be passed in.
+     * Note if start and end appear in the template, then just one formatted
+     * range is returned.  This works by formatting and parsing the time ranges,
+     * stepping through the sequence.
+     * @param template the template
+     * @param startTimeStr the beginning of the interval to cover
+     * @param stopTimeStr the end of the interval to cover
+     * @param extra extra named parameters
+     * @return the formatted times which cover the span.
+     * @throws ParseException when the initial parsing cannot be done.
+     */
+    public static String[] formatRange( String template, 
+            String startTimeStr, 
+            String stopTimeStr, 
+            Map<String,String> extra ) throws ParseException {        
+        URITemplate ut= new URITemplate(template);
+        ArrayList<String> result= new ArrayList<>();
+        int[] startDigits= TimeUtil.isoTimeToArray(startTimeStr);
+        int[] stopDigits= TimeUtil.isoTimeToArray(stopTimeStr);
+        int externalContext= ut.getExternalContext();
+        if ( externalContext>0 ) {
+            int[] context= new int[TimeUtil.TIME_DIGITS];
+            System.arraycopy(stopDigits, 0, context, 0, externalContext);
+            ut.setContext(context);
+        }
+        Iterator<String> it= ut.formatRangeIterator( startDigits, stopDigits, extra );
+        try {
+            while ( it.hasNext() ) {
+                result.add( it.next() );
+            }
+        } catch ( IllegalArgumentException ex ) {
+            if ( ex.getCause() instanceof ParseException ) {
+                throw (ParseException)ex.getCause();
+            } else {
+                throw ex;
+            }
+        }
+        return result.toArray( new String[result.size()] );
+    }
+    
+    /**
+     * return the names which cover the time range, formatted one at a time 
+     * as they are needed, so that very long sequences can be enumerated in 
+     * constant memory.  For most templates the granules are found by adding 
+     * the template's width to the previous granule, and only the first is 
+     * found by formatting and parsing a name.  Templates with shifts, 
+     * phasestart, stop time fields, or field handlers which change the time 
+     * step by formatting and parsing each name.
+     * Note if start and end appear in the template, then just one formatted
+     * range is returned.  The template's context is used as it is, 
+     * see formatRange which sets it.
+     * @param startTime seven-component start time of the interval to cover
+     * @param stopTime seven-component stop time of the interval to cover
+     * @param extra extra named parameters
+     * @return iterator of the names.  Its next method throws an IllegalArgumentException 
+     * with a ParseException as the cause if a name cannot be parsed, 
+     * and IllegalArgumentException if the template does not advance.
+     * @throws ParseException when the first name cannot be parsed.
+     * @throws IllegalArgumentException when the start time is after the stop time.
+     * @see #formatRange(java.lang.String, java.lang.String, java.lang.String, java.util.Map) 
+     */
+    public Iterator<String> formatRangeIterator( int[] startTime, int[] stopTime, 
+            Map<String,String> extra ) throws ParseException {
+        return new GranuleIterator( this, startTime, stopTime, extra );
+    }
+    
+    /**
+     * return the names which cover the time range, formatted one at a time as 
+     * they are needed, for each combination of the values of the enum fields 
+     * whose id is not in extra.  For example, with data_$(enum;id=sc;values=a,b)_$Y$m$d.cdf, 
+     * the names are data_a_20000101.cdf, data_b_20000101.cdf, data_a_20000102.cdf, ...
+     * when timeMajor is true, and data_a_20000101.cdf, data_a_20000102.cdf, ... 
+     * data_b_20000101.cdf, ... otherwise.  The last enum field in the template
+     * changes fastest.  The granules are found once when timeMajor is true, and 
+     * once for each combination otherwise.  Note fields like hrinterval are 
+     * found from the time, and so are not expanded.
+     * @param startTime seven-component start time of the interval to cover
+     * @param stopTime seven-component stop time of the interval to cover
+     * @param extra extra named parameters, which may be null, and which fix the value of an enum field.
+     * @param timeMajor if true, the names for all the values are returned for each granule, 
+     * otherwise all the granules are returned for each combination of values.
+     * @return iterator of the names.
+     * @throws ParseException when the first name cannot be parsed.
+     * @see #formatRangeIterator(int[], int[], java.util.Map) 
+     */
+    public Iterator<String> formatRangeIterator( int[] startTime, int[] stopTime, 
+            Map<String,String> extra, boolean timeMajor ) throws ParseException {
+        List<EnumFieldHandler> expanded= new ArrayList<>();
+        for ( int i=1; i<ndigits; i++ ) {
+            EnumFieldHandler h= steps[i].enumHandler;
+            if ( h==null || ( extra!=null && extra.containsKey( h.id ) ) ) {
+                continue;
+            }
+            expanded.add( h );
+        }
+        return new ExpandingIterator( this, startTime, stopTime, extra, 
+                expanded.toArray( new EnumFieldHandler[expanded.size()] ), timeMajor );
+    }
+    
+    /**
+     * return true if each granule can be found by adding the width to the
+     * previous granule, rather than by formatting and parsing a name.
+     * @return true if granules can be found by adding the width.
+     */
+    private boolean isRegular() {
+        if ( timeWidth==null || stopTimeDigit!=AFTERSTOP_INIT || disallowCarryForStopTime 
+                || phasestart!=null || startShift!=null || stopShift!=null ) {
+            return false;
+        }
+        boolean nonZero= false;
+        for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
+            if ( timeWidth[i]<0 ) return false;
+            if ( timeWidth[i]>0 ) nonZero= true;
+        }
+        if ( !nonZero ) {
+            return false;
+        }
+        return fieldsAreRegular();
+    }
+    
+    /**
+     * return true if the fields do not change the width from one granule to 
+     * the next.
+     * @return true if the fields do not change the width.
+     */
+    private boolean fieldsAreRegular() {
+        for ( int i=1; i<ndigits; i++ ) {
+            FieldStep step= steps[i];
+            if ( step.formatDelta!=1 ) { // $(H;delta=6) is regular, but $(j;delta=5) restarts each year.
+                int parent;
+                switch ( step.handler ) {
+                    case 0: parent= step.formatDelta; break;
+                    case 3: parent= 12; break;
+                    case 4: 
+                        if ( phasestart==null ) return false;
+                        parent= step.formatDelta; 
+                        break;
+                    case 5: parent= 24; break;
+                    case 6: 
+                    case 7: parent= 60; break;
+                    default: return false;
+                }
+                if ( step.formatDelta<1 || parent % step.formatDelta!=0 ) {
+                    return false;
+                }
+            }
+            if ( step.handler==100 && !( step.enumHandler!=null 
+                    || step.fieldHandler instanceof VersionFieldHandler 
+                    || step.fieldHandler instanceof IgnoreFieldHandler ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * return a Spliterator over the names which cover the time range, which 
+     * can be used with parallel streams.  For regular templates with a width 
+     * of one component, like P1D or PT10M, the number of names is known and 
+     * the range is split in half at a granule boundary.  Otherwise (or for 
+     * times before 1583) the names are found in sequence, as formatRangeIterator 
+     * does, and split into batches.
+     * @param startTime seven-component start time of the interval to cover
+     * @param stopTime seven-component stop time of the interval to cover
+     * @param extra extra named parameters, which are copied when the Spliterator is split.
+     * @return the Spliterator
+     * @throws ParseException when the first name cannot be parsed.
+     * @see #formatRangeIterator(int[], int[], java.util.Map) 
+     */
+    public Spliterator<String> formatRangeSpliterator( int[] startTime, int[] stopTime, 
+            Map<String,String> extra ) throws ParseException {
+        GranuleIterator it= new GranuleIterator( this, startTime, stopTime, extra );
+        if ( it.regular && widthComponent()>-1 && isAligned( it.start, widthComponent() ) 
+                && it.start[0]>1582 && it.stopTime[0]>1582 ) {
+            long n= countFrom( it.start, it.stopTime );
+            return new GranuleSpliterator( this, it.start, 0, n, extra );
+        } else {
+            return Spliterators.spliteratorUnknownSize( it, Spliterator.ORDERED | Spliterator.NONNULL );
+        }
+    }
+    
+    /**
+     * return a sequential Stream of the names which cover the time range, 
+     * which can be made parallel with its parallel method.
+     * @param startTime seven-component start time of the interval to cover
+     * @param stopTime seven-component stop time of the interval to cover
+     * @param extra extra named parameters
+     * @return the Stream
+     * @throws ParseException when the first name cannot be parsed.
+     * @see #formatRangeSpliterator(int[], int[], java.util.Map) 
+     */
+    public Stream<String> formatRangeStream( int[] startTime, int[] stopTime, 
+            Map<String,String> extra ) throws ParseException {
+        return StreamSupport.stream( formatRangeSpliterator( startTime, stopTime, extra ), false );
+    }
+    
+    /**
+     * return true if the granules of the template can be counted and indexed 
+     * without formatting names, as countGranules, granuleIndex, granuleAt 
+     * and snapToGranules do.  This is true when the width has one component,
+     * like P1D or PT6H, and each granule starts where the last one stopped, 
+     * perhaps with a phasestart or shift.  It is false, for example, for 
+     * $Y$(j;delta=5), which restarts each year, and for templates with the 
+     * stop time, like $Y$m$d_$(Y;end)$m$d.
+     * @return true if the granules are regular.
+     */
+    public boolean hasRegularGranules() {
+        if ( timeWidth==null || stopTimeDigit!=AFTERSTOP_INIT || disallowCarryForStopTime ) {
+            return false;
+        }
+        int c= widthComponent();
+        if ( c==-1 || timeWidth[c]<1 ) {
+            return false;
+        }
+        if ( phasestart!=null ? c>2 : ( c==2 && timeWidth[2]>1 ) ) {
+            return false;
+        }
+        return fieldsAreRegular();
+    }
+    
+    /**
+     * return the start of granule 0, which contains 1970-01-01T00:00Z, or 
+     * which starts at the phasestart when it is set.
+     * @return the seven-component time.
+     */
+    private int[] granuleOrigin() {
+        if ( !hasRegularGranules() ) {
+            throw new IllegalArgumentException("granules are not regular: "+spec);
+        }
+        int c= widthComponent();
+        if ( phasestart!=null ) {
+            return new int[] { phasestart[0], c>0 ? phasestart[1] : 1, c>1 ? phasestart[2] : 1, 0, 0, 0, 0 };
+        } else if ( c==0 ) {
+            return new int[] { floorDiv( 1970, timeWidth[0] ) * timeWidth[0], 1, 1, 0, 0, 0, 0 };
+        } else {
+            return new int[] { 1970, 1, 1, 0, 0, 0, 0 };
+        }
+    }
+    
+    /**
+     * return the index of the granule which contains the time, where granule 0 
+     * contains 1970-01-01T00:00Z, or starts at the phasestart when it is set.  
+     * For example, with $Y$m$d, 2000-01-01T12:00Z is in granule 10957.
+     * @param time the seven-component time.
+     * @return the index, which is negative for times before granule 0.
+     * @throws IllegalArgumentException if the granules are not regular.
+     * @see #hasRegularGranules() 
+     * @see #granuleAt(long) 
+     */
+    public long granuleIndex( int[] time ) {
+        int[] origin= granuleOrigin();
+        int[] t= Arrays.copyOf( time, NUM_TIME_DIGITS );
+        if ( startShift!=null ) {
+            for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
+                t[i]-= startShift[i];
+            }
+        }
+        TimeUtil.normalizeTime( t );
+        return Math.floorDiv( unitsFrom( origin, t ), timeWidth[widthComponent()] );
+    }
+    
+    /**
+     * return the time range of the granule with the index, without formatting
+     * a name.  For example, with $Y$m$d, granule 10957 is 2000-01-01/2000-01-02.
+     * @param index the index, where granule 0 contains 1970-01-01T00:00Z, or 
+     * starts at the phasestart when it is set.
+     * @return the 14-component time range.
+     * @throws IllegalArgumentException if the granules are not regular.
+     * @see #granuleIndex(int[]) 
+     */
+    public int[] granuleAt( long index ) {
+        int[] origin= granuleOrigin();
+        int[] result= new int[TimeUtil.TIME_RANGE_DIGITS];
+        int[] t= new int[NUM_TIME_DIGITS];
+        granuleFrom( origin, index, t );
+        System.arraycopy( t, 0, result, 0, NUM_TIME_DIGITS );
+        granuleFrom( origin, index+1, t );
+        System.arraycopy( t, 0, result, NUM_TIME_DIGITS, NUM_TIME_DIGITS );
+        if ( startShift!=null ) {
+            for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
+                result[i]+= startShift[i];
+            }
+            TimeUtil.normalizeTime( result, 0 );
+        }
+        if ( stopShift!=null ) {
+            for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
+                result[NUM_TIME_DIGITS+i]+= stopShift[i];
+            }
+            TimeUtil.normalizeTime( result, NUM_TIME_DIGITS );
+        }
+        return result;
+    }
+    
+    /**
+     * return the index of the last granule which covers part of the range, 
+     * or of the granule before the first when the range is empty.
+     * @param timeRange the 14-component time range.
+     * @return the index
+     */
+    private long lastGranuleIndex( int[] timeRange ) {
+        int[] stop= Arrays.copyOfRange( timeRange, NUM_TIME_DIGITS, TimeUtil.TIME_RANGE_DIGITS );
+        long last= granuleIndex( stop );
+        int[] tr= granuleAt( last );
+        for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
+            if ( tr[i]!=stop[i] ) {
+                return last;
+            }
+        }
+        return last-1;
+    }
+    
+    /**
+     * return the number of granules which cover part of the range, without
+     * formatting any names.  For example, with $Y$m$d, 2000-01-01T12:00/2000-01-03T00:00 
+     * is covered by two granules.
+     * @param timeRange the 14-component time range.
+     * @return the number of granules, which is zero when the range is empty.
+     * @throws IllegalArgumentException if the granules are not regular.
+     */
+    public long countGranules( int[] timeRange ) {
+        int[] start= TimeUtil.getStartTime( timeRange );
+        long first= granuleIndex( start );
+        if ( !TimeUtil.gt( TimeUtil.getStopTime( timeRange ), start ) ) {
+            return 0;
+        }
+        return lastGranuleIndex( timeRange ) - first + 1;
+    }
+    
+    /**
+     * return the range expanded to granule boundaries, starting at the start 
+     * of the first granule which covers part of the range and stopping at the 
+     * stop of the last one.  An empty range is returned as the granule 
+     * containing its start.
+     * @param timeRange the 14-component time range.
+     * @return the 14-component time range.
+     * @throws IllegalArgumentException if the granules are not regular.
+     */
+    public int[] snapToGranules( int[] timeRange ) {
+        long first= granuleIndex( TimeUtil.getStartTime( timeRange ) );
+        long last= Math.max( first, lastGranuleIndex( timeRange ) );
+        int[] result= granuleAt( first );
+        if ( last>first ) {
+            System.arraycopy( granuleAt( last ), NUM_TIME_DIGITS, result, NUM_TIME_DIGITS, NUM_TIME_DIGITS );
+        }
+        return result;
+    }
+    
+    private static final long[] COMPONENT_NANOSECONDS= new long[] { 
+        0, 0, 86400000000000L, 3600000000000L, 60000000000L, 1000000000L, 1 };
+    
+    /**
+     * return the one component of the width which is not zero, like 2 for 
+     * days when the width is P1D.
+     * @return the component, or -1 if the width has more than one component.
+     */
+    private int widthComponent() {
+        int result= -1;
+        for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
+            if ( timeWidth[i]!=0 ) {
+                if ( result>-1 ) return -1;
+                result= i;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * return true if the time is at the start of a year, for a width in 
+     * years, or at the start of a month, for a width in months.  Widths 
+     * of days and smaller are always aligned, because they are added as 
+     * nanoseconds.
+     * @param time the seven-component time
+     * @param component the component of the width.
+     * @return true if the time is aligned.
+     */
+    private static boolean isAligned( int[] time, int component ) {
+        if ( component>1 ) {
+            return true;
+        }
+        if ( component==0 && time[1]!=1 ) {
+            return false;
+        }
+        return time[2]==1 && time[3]==0 && time[4]==0 && time[5]==0 && time[6]==0;
+    }
+    
+    /**
+     * calculate the start of the granule which is count widths from the 
+     * start, without stepping through the granules between.
+     * @param start the start of a granule, aligned as isAligned requires.
+     * @param count the number of widths
+     * @param result the seven-component time
+     */
+    private void granuleFrom( int[] start, long count, int[] result ) {
+        int c= widthComponent();
+        long n= count * timeWidth[c];
+        System.arraycopy( start, 0, result, 0, NUM_TIME_DIGITS );
+        switch ( c ) {
+            case 0:
+                result[0]= (int)( start[0] + n );
+                break;
+            case 1:
+                long month= start[0] * 12L + ( start[1] - 1 ) + n;
+                result[0]= (int)Math.floorDiv( month, 12L );
+                result[1]= (int)Math.floorMod( month, 12L ) + 1;
+                break;
+            default:
+                long jd= TimeUtil.julianDay( start[0], start[1], start[2] );
+                long nanos= start[3] * 3600000000000L + start[4] * 60000000000L + start[5] * 1000000000L + start[6];
+                if ( c==2 ) {
+                    jd+= n;
+                } else {
+                    nanos+= n * COMPONENT_NANOSECONDS[c];
+                }
+                jd+= Math.floorDiv( nanos, 86400000000000L );
+                nanos= Math.floorMod( nanos, 86400000000000L );
+                TimeUtil.fromJulianDay( (int)jd, result, 0 );
+                result[3]= (int)( nanos / 3600000000000L );
+                result[4]= (int)( nanos % 3600000000000L / 60000000000L );
+                result[5]= (int)( nanos % 60000000000L / 1000000000L );
+                result[6]= (int)( nanos % 1000000000L );
+                break;
+        }
+    }
+    
+    /**
+     * return the number of whole units of the width's component, like days 
+     * for P2D, from the start to the time, rounding down.
+     * @param start the start of a granule, aligned as isAligned requires.
+     * @param time the time, which may be before the start.
+     * @return the number of units, which is negative when the time is before the start.
+     */
+    private long unitsFrom( int[] start, int[] time ) {
+        int c= widthComponent();
+        switch ( c ) {
+            case 0:
+                return time[0] - start[0];
+            case 1:
+                return ( time[0] * 12L + time[1] ) - ( start[0] * 12L + start[1] );
+            default:
+                long days= TimeUtil.julianDay( time[0], time[1], time[2] ) - TimeUtil.julianDay( start[0], start[1], start[2] );
+                long nanos= ( time[3] - start[3] ) * 3600000000000L + ( time[4] - start[4] ) * 60000000000L 
+                        + ( time[5] - start[5] ) * 1000000000L + ( time[6] - start[6] );
+                if ( c==2 ) {
+                    return days + Math.floorDiv( nanos, 86400000000000L );
+                } else {
+                    return days * ( 86400000000000L / COMPONENT_NANOSECONDS[c] ) + Math.floorDiv( nanos, COMPONENT_NANOSECONDS[c] );
+                }
+        }
+    }
+    
+    /**
+     * return the number of granules from the start which begin before the 
+     * stop time, which is at least one.
+     * @param start the start of a granule, aligned as isAligned requires.
+     * @param stop the stop time
+     * @return the number of granules, at least one.
+     */
+    private long countFrom( int[] start, int[] stop ) {
+        int c= widthComponent();
+        long units= unitsFrom( start, stop );
+        long k= Math.max( 0, units / timeWidth[c] );
+        int[] t= new int[NUM_TIME_DIGITS];
+        granuleFrom( start, k, t );
+        while ( TimeUtil.gt( stop, t ) ) {
+            k++;
+            granuleFrom( start, k, t );
+        }
+        while ( k>0 ) {
+            granuleFrom( start, k-1, t );
+            if ( TimeUtil.gt( stop, t ) ) break;
+            k--;
+        }
+        return Math.max( 1, k );
+    }
+    
+    /**
+     * Spliterator over the names of granules origin to fence, counted from 
+     * the granule start, see formatRangeSpliterator.
+     */
+    private static final class GranuleSpliterator implements Spliterator<String> {
+        
+        private final URITemplate ut;
+        private final int[] start0;
+        private long origin;
+        private final long fence;
+        private final Map<String,String> extra;
+        
+        /**
+         * the start and stop of the granule at origin, or null when they must be calculated.
+         */
+        private int[] start;
+        private int[] stop;
+        
+        GranuleSpliterator( URITemplate ut, int[] start0, long origin, long fence, Map<String,String> extra ) {
+            this.ut= ut;
+            this.start0= start0;
+            this.origin= origin;
+            this.fence= fence;
+            this.extra= extra;
+        }
+        
+        @Override
+        public boolean tryAdvance( Consumer<? super String> action ) {
+            if ( origin>=fence ) {
+                return false;
+            }
+            if ( start==null ) {
+                start= new int[NUM_TIME_DIGITS];
+                stop= new int[NUM_TIME_DIGITS];
+                ut.granuleFrom( start0, origin, start );
+                ut.granuleFrom( start0, origin+1, stop );
+            }
+            String name= ut.formatStartStopRange( start, ut.timeWidthIsExplicit ? stop : start, extra );
+            System.arraycopy( stop, 0, start, 0, NUM_TIME_DIGITS );
+            for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
+                stop[i]= start[i] + ut.timeWidth[i];
+            }
+            TimeUtil.normalizeTime( stop );
+            origin++;
+            action.accept( name );
+            return true;
+        }
+
+        @Override
+        public Spliterator<String> trySplit() {
+            long mid= ( origin + fence ) >>> 1;
+            if ( mid<=origin ) {
+                return null;
+            }
+            Map<String,String> extraCopy= extra==null ? null : new HashMap<>( extra );
+            GranuleSpliterator prefix= new GranuleSpliterator( ut, start0, origin, mid, extraCopy );
+            prefix.start= start;
+            prefix.stop= stop;
+            this.origin= mid;
+            this.start= null;
+            this.stop= null;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - origin;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED 
+                    | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+        }
+    }
+    
+    /**
+     * iterator over the names covering a time range, see formatRangeIterator.
+     */
+    private static final class GranuleIterator implements Iterator<String> {
+        
+        private final URITemplate ut;
+        private final int[] startTime;
+        private final int[] stopTime;
+        private final Map<String,String> extra;
+        private final boolean regular;
+        
+        /**
+         * the start and stop of the next granule, when the template is regular.
+         */
+        private final int[] start= new int[NUM_TIME_DIGITS];
+        private final int[] stop= new int[NUM_TIME_DIGITS];
+        
+        /**
+         * the times from which the next name is formatted, when the template is not regular, or null.
+         */
+        private int[] pendingStart;
+        private int[] pendingStop;
+        
+        /**
+         * the next name, when it was formatted to find the granule, or null.
+         */
+        private String pendingName;
+        
+        /**
+         * the time from which the name following pending is found, when the template is not regular.
+         */
+        private int[] sptr;
+        
+        private boolean done;
+        
+        /**
+         * true before the first name is returned, which is always returned, 
+         * even when the context puts it after the stop time.
+         */
+        private boolean first;
+        
+        /**
+         * the times from which the name is formatted by next.
+         */
+        private final int[] nameStart= new int[NUM_TIME_DIGITS];
+        private final int[] nameStop= new int[NUM_TIME_DIGITS];
+        
+        GranuleIterator( URITemplate ut, int[] startTime, int[] stopTime, Map<String,String> extra ) throws ParseException {
+            this.ut= ut;
+            this.startTime= Arrays.copyOf( startTime, NUM_TIME_DIGITS );
+            this.stopTime= Arrays.copyOf( stopTime, NUM_TIME_DIGITS );
+            this.extra= extra;
+            if ( TimeUtil.gt( this.startTime, this.stopTime ) ) {
+                throw new IllegalArgumentException("start time must be before or equal to stop time.");
+            }
+            if ( !TimeUtil.gt( this.stopTime, this.startTime ) ) {
+                done= true;
+                this.regular= false;
+                return;
+            }
+            String s1= format( this.startTime );
+            int[] tta= ut.parse( s1, new HashMap<>() );
+            if ( Arrays.equals( TimeUtil.getStartTime(tta), TimeUtil.getStopTime(tta) ) ) {
+                //special case where start and stop are in the template, so there is no looping.
+                pendingStart= Arrays.copyOf( startTime, NUM_TIME_DIGITS );
+                pendingStop= ut.timeWidthIsExplicit ? TimeUtil.add( pendingStart, ut.timeWidth ) : Arrays.copyOf( stopTime, NUM_TIME_DIGITS );
+                pendingName= ut.formatStartStopRange( Arrays.copyOf( pendingStart, NUM_TIME_DIGITS ), 
+                        Arrays.copyOf( pendingStop, NUM_TIME_DIGITS ), new HashMap<>() );
+                done= true;
+                this.regular= false;
+                return;
+            }
+            if ( Arrays.equals( this.startTime, TimeUtil.getStopTime(tta) ) ) {
+                throw new IllegalArgumentException("template fails to advance");
+            }
+            this.regular= ut.isRegular();
+            if ( regular ) {
+                System.arraycopy( tta, 0, start, 0, NUM_TIME_DIGITS );
+                System.arraycopy( tta, NUM_TIME_DIGITS, stop, 0, NUM_TIME_DIGITS );
+                first= true;
+            } else {
+                setPending( TimeUtil.getStartTime(tta) );
+                pendingName= null;
+                sptr= TimeUtil.getStopTime(tta);
+            }
+        }
+        
+        /**
+         * set the times from which the name for the time is formatted, as 
+         * format(String,String,Map) does with the same start and stop.
+         */
+        private void setPending( int[] t ) {
+            pendingStart= Arrays.copyOf( t, NUM_TIME_DIGITS );
+            pendingStop= ut.timeWidthIsExplicit ? TimeUtil.add( pendingStart, ut.timeWidth ) : Arrays.copyOf( t, NUM_TIME_DIGITS );
+        }
+        
+        /**
+         * format the name for the time, as format(String,String,Map) does with the same start and stop.
+         */
+        private String format( int[] t ) {
+            int[] tstart= Arrays.copyOf( t, NUM_TIME_DIGITS );
+            int[] tstop= ut.timeWidthIsExplicit ? TimeUtil.add( tstart, ut.timeWidth ) : Arrays.copyOf( t, NUM_TIME_DIGITS );
+            return ut.formatStartStopRange( tstart, tstop, extra );
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if ( regular ) {
+                return first || TimeUtil.gt( stopTime, start );
+            } else {
+                return pendingStart!=null;
+            }
+        }
+        
+        /**
+         * move to the next granule, copying the times from which its name is 
+         * formatted into nameStart and nameStop.  These may be modified
+         * when the name is formatted.
+         * @param nameStart the start time passed to formatStartStopRange.
+         * @param nameStop the stop time passed to formatStartStopRange.
+         * @return the name, when it was formatted with extra to find the granule, or null.
+         */
+        String advance( int[] nameStart, int[] nameStop ) {
+            if ( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            if ( regular ) {
+                System.arraycopy( start, 0, nameStart, 0, NUM_TIME_DIGITS );
+                System.arraycopy( ut.timeWidthIsExplicit ? stop : start, 0, nameStop, 0, NUM_TIME_DIGITS );
+                first= false;
+                System.arraycopy( stop, 0, start, 0, NUM_TIME_DIGITS );
+                for ( int i=0; i<NUM_TIME_DIGITS; i++ ) {
+                    stop[i]= start[i] + ut.timeWidth[i];
+                }
+                TimeUtil.normalizeTime( stop );
+                return null;
+            } else {
+                System.arraycopy( pendingStart, 0, nameStart, 0, NUM_TIME_DIGITS );
+                System.arraycopy( pendingStop, 0, nameStop, 0, NUM_TIME_DIGITS );
+                String result= pendingName;
+                pendingStart= null;
+                pendingStop= null;
+                pendingName= null;
+                if ( !done && TimeUtil.gt( stopTime, sptr ) ) {
+                    String s1= format( sptr );
+                    int[] tta;
+                    try {
+                        tta= ut.parse( s1, new HashMap<>() );
+                    } catch ( ParseException ex ) {
+                        throw new IllegalArgumentException( ex );
+                    }
+                    int[] next= TimeUtil.getStopTime(tta);
+                    if ( Arrays.equals( sptr, next ) ) {
+                        throw new IllegalArgumentException("template fails to advance");
+                    }
+                    setPending( sptr );
+                    pendingName= s1;
+                    sptr= next;
+                }
+                return result;
+            }
+        }
+
+        @Override
+        public String next() {
+            String result= advance( nameStart, nameStop );
+            if ( result==null ) {
+                result= ut.formatStartStopRange( nameStart, nameStop, extra );
+            }
+            return result;
+        }
     }
-        
+    
     /**
-     * For convenience, add API to match that suggested by 
-     * https://github.com/hapi-server/uri-templates/blob/master/formatting.json,
-     * and allowing for extra named fields to be passed in.
-     * Note if start and end appear in the template, then just one formatted
-     * range is returned.  This works by formatting and parsing the time ranges,
-     * stepping through the sequence.
-     * @param template the template
-     * @param startTimeStr the beginning of the interval to cover
-     * @param stopTimeStr the end of the interval to cover
-     * @param extra extra named parameters
-     * @return the formatted times which cover the span.
-     * @throws ParseException when the initial parsing cannot be done.
+     * iterator over the names covering a time range, for each combination of 
+     * the values of the enum fields which are expanded, see formatRangeIterator.
      */
-    public static String[] formatRange( String template, 
-            String startTimeStr, 
-            String stopTimeStr, 
-            Map<String,String> extra ) throws ParseException {        
-        URITemplate ut= new URITemplate(template);
-        ArrayList<String> result= new ArrayList<>();
-        String s1;
-        String sptr= TimeUtil.isoTimeFromArray( TimeUtil.isoTimeToArray(startTimeStr) );
-        int[] stopDigits= TimeUtil.isoTimeToArray(stopTimeStr);
-        String stop= TimeUtil.isoTimeFromArray( stopDigits );
-        if ( sptr.compareTo(stop)>0 ) {
-            throw new IllegalArgumentException("start time must be before or equal to stop time.");
-        }
-        int i=0;
-        int externalContext= ut.getExternalContext();
-        if ( externalContext>0 ) {
-            int[] context= new int[TimeUtil.TIME_DIGITS];
-            System.arraycopy(stopDigits, 0, context, 0, externalContext);
-            ut.setContext(context);
+    private static final class ExpandingIterator implements Iterator<String> {
+        
+        private final URITemplate ut;
+        private final int[] startTime;
+        private final int[] stopTime;
+        
+        /**
+         * the enum fields which are expanded, and the index of the current value 
+         * of each.  These count like the digits of a number, with the last 
+         * changing fastest, so that the combinations are never all held at once.
+         */
+        private final EnumFieldHandler[] handlers;
+        private final int[] index;
+        
+        /**
+         * the number of combinations of values.
+         */
+        private final long combinationCount;
+        
+        /**
+         * the extra parameters for the current combination, which is updated as the index advances.
+         */
+        private final Map<String,String> current;
+        
+        /**
+         * the extra parameters for the first combination, from which the granules are found when timeMajor.
+         */
+        private final Map<String,String> first;
+        
+        private final boolean timeMajor;
+        
+        /**
+         * the granules, for the first combination when timeMajor, or for the current combination.
+         */
+        private GranuleIterator granules;
+        
+        /**
+         * the number of the combination for the next name.
+         */
+        private long icombination;
+        
+        /**
+         * the times from which the names of the current granule are formatted, when timeMajor.
+         */
+        private final int[] nameStart= new int[NUM_TIME_DIGITS];
+        private final int[] nameStop= new int[NUM_TIME_DIGITS];
+        private String firstName;
+        
+        ExpandingIterator( URITemplate ut, int[] startTime, int[] stopTime, 
+                Map<String,String> extra, EnumFieldHandler[] handlers, boolean timeMajor ) throws ParseException {
+            this.ut= ut;
+            this.startTime= startTime;
+            this.stopTime= stopTime;
+            this.handlers= handlers;
+            this.index= new int[handlers.length];
+            this.current= extra==null ? new HashMap<>() : new HashMap<>( extra );
+            long n= 1;
+            for ( EnumFieldHandler h: handlers ) {
+                this.current.put( h.id, h.valueList[0] );
+                n*= h.valueList.length;
+            }
+            this.combinationCount= n;
+            this.first= new HashMap<>( current );
+            this.timeMajor= timeMajor;
+            this.granules= new GranuleIterator( ut, startTime, stopTime, timeMajor ? first : current );
+            this.icombination= timeMajor ? combinationCount : 0;
         }
         
-        boolean firstLoop= true;
-        while ( sptr.compareTo(stop)<0 ) {
-            String sptr0= sptr;
-            s1= ut.format( sptr, sptr, extra );
-            int [] tta= ut.parse( s1, new HashMap<>() );
-            if ( firstLoop ) {
-                sptr= TimeUtil.isoTimeFromArray( TimeUtil.getStartTime(tta) );
-                s1= ut.format( sptr, sptr, extra );
-                firstLoop= false;
+        /**
+         * advance the index to the next combination of values, updating the current extra parameters.
+         */
+        private void increment() {
+            for ( int k=handlers.length-1; k>=0; k-- ) {
+                String[] values= handlers[k].valueList;
+                index[k]++;
+                if ( index[k]<values.length ) {
+                    current.put( handlers[k].id, values[index[k]] );
+                    return;
+                }
+                index[k]= 0;
+                current.put( handlers[k].id, values[0] );
             }
-            //test for special case where start and stop are in the template, so there is no looping.
-            if ( Arrays.equals( TimeUtil.getStartTime(tta), TimeUtil.getStopTime(tta) ) ) {
-                result.add( ut.format( startTimeStr, stopTimeStr ) );
-                break;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if ( timeMajor ) {
+                return icombination<combinationCount || granules.hasNext();
             } else {
-                result.add( s1 );
+                while ( !granules.hasNext() && icombination+1<combinationCount ) {
+                    icombination++;
+                    increment();
+                    try {
+                        granules= new GranuleIterator( ut, startTime, stopTime, current );
+                    } catch ( ParseException ex ) {
+                        throw new IllegalArgumentException( ex );
+                    }
+                }
+                return granules.hasNext();
             }
-            sptr= TimeUtil.isoTimeFromArray( TimeUtil.getStopTime(tta) );
-            if ( sptr0.equals(sptr) ) {
-                throw new IllegalArgumentException("template fails to advance");
+        }
+        
+        @Override
+        public String next() {
+            if ( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            if ( timeMajor ) {
+                String result;
+                if ( icombination==combinationCount ) {
+                    firstName= granules.advance( nameStart, nameStop );
+                    icombination= 0;
+                    Arrays.fill( index, 0 );
+                    current.putAll( first );
+                    result= firstName!=null ? firstName : ut.formatStartStopRange( Arrays.copyOf( nameStart, NUM_TIME_DIGITS ), 
+                            Arrays.copyOf( nameStop, NUM_TIME_DIGITS ), first );
+                } else {
+                    increment();
+                    result= ut.formatStartStopRange( Arrays.copyOf( nameStart, NUM_TIME_DIGITS ), 
+                            Arrays.copyOf( nameStop, NUM_TIME_DIGITS ), current );
+                }
+                icombination++;
+                return result;
+            } else {
+                return granules.next();
             }
-            i=i+1;
         }
-        return result.toArray( new String[result.size()] );
     }
     
     /**
@@ -1907,6 +5087,40 @@ public class URITemplate {
         int[] stop= TimeUtil.getStopTime(timeRange);
         return formatStartStopRange( start, stop, extra );
     }
+    
+    /**
+     * return the formatted name, using the start and stop times given as 
+     * (non-leap) nanoseconds since 1970-01-01T00:00Z.
+     * @param start the start time in nanoseconds since 1970-01-01T00:00Z.
+     * @param stop the stop time in nanoseconds since 1970-01-01T00:00Z.
+     * @param extra extra parameters
+     * @return the formatted name.
+     * @see #parseNanoseconds(java.lang.CharSequence, java.util.Map) 
+     */
+    public String formatNanoseconds( long start, long stop, Map<String,String> extra ) {
+        int[] startTime= new int[NUM_TIME_DIGITS];
+        int[] stopTime= new int[NUM_TIME_DIGITS];
+        TimeUtil.fromNanosecondsSince1970( start, startTime, 0 );
+        TimeUtil.fromNanosecondsSince1970( stop, stopTime, 0 );
+        return formatStartStopRange( startTime, stopTime, extra );
+    }
+    
+    /**
+     * return the formatted name, using the start and stop times given as 
+     * (non-leap) milliseconds since 1970-01-01T00:00Z.
+     * @param start the start time in milliseconds since 1970-01-01T00:00Z.
+     * @param stop the stop time in milliseconds since 1970-01-01T00:00Z.
+     * @param extra extra parameters
+     * @return the formatted name.
+     * @see #parseMilliseconds(java.lang.CharSequence, java.util.Map) 
+     */
+    public String formatMilliseconds( long start, long stop, Map<String,String> extra ) {
+        int[] startTime= new int[NUM_TIME_DIGITS];
+        int[] stopTime= new int[NUM_TIME_DIGITS];
+        TimeUtil.fromMillisecondsSince1970( start, startTime, 0 );
+        TimeUtil.fromMillisecondsSince1970( stop, stopTime, 0 );
+        return formatStartStopRange( startTime, stopTime, extra );
+    }
 
     /**
      * return the formatted name, using the spec and the given time range.
@@ -1926,6 +5140,451 @@ public class URITemplate {
      * @return formatted time, often a resolvable URI.
      */    
     public String formatStartStopRange( int[] startTime, int[] stopTime, Map<String,String> extra ) {
+        FormatBuffer buf= formatBuffer.get();
+        if ( appendFormat( startTime, stopTime, extra, buf ) ) {
+            return new String( buf.chars, buf.start, buf.end-buf.start );
+        } else {
+            return formatWithInserts( startTime, stopTime, extra );
+        }
+    }
+    
+    /**
+     * format the name, appending it to the Appendable, such as a StringBuilder or Writer.
+     * @param startTime seven-component start time
+     * @param stopTime seven-component stop time
+     * @param extra extra parameters
+     * @param out the destination
+     * @throws IOException when the Appendable throws it.
+     * @see #formatStartStopRange(int[], int[], java.util.Map) 
+     */
+    public void formatTo( int[] startTime, int[] stopTime, Map<String,String> extra, Appendable out ) throws IOException {
+        FormatBuffer buf= formatBuffer.get();
+        if ( appendFormat( startTime, stopTime, extra, buf ) ) {
+            if ( out instanceof StringBuilder ) {
+                ((StringBuilder)out).append( buf.chars, buf.start, buf.end-buf.start );
+            } else {
+                for ( int i=buf.start; i<buf.end; i++ ) {
+                    out.append( buf.chars[i] );
+                }
+            }
+        } else {
+            out.append( formatWithInserts( startTime, stopTime, extra ) );
+        }
+    }
+    
+    /**
+     * format the name into the char array.
+     * @param startTime seven-component start time
+     * @param stopTime seven-component stop time
+     * @param extra extra parameters
+     * @param dest the destination
+     * @param offset the index where the first character is put.
+     * @return the number of characters.
+     * @throws ArrayIndexOutOfBoundsException when the array is too short.
+     * @see #formatStartStopRange(int[], int[], java.util.Map) 
+     */
+    public int formatInto( int[] startTime, int[] stopTime, Map<String,String> extra, char[] dest, int offset ) {
+        FormatBuffer buf= formatBuffer.get();
+        if ( appendFormat( startTime, stopTime, extra, buf ) ) {
+            int n= buf.end-buf.start;
+            System.arraycopy( buf.chars, buf.start, dest, offset, n );
+            return n;
+        } else {
+            String s= formatWithInserts( startTime, stopTime, extra );
+            s.getChars( 0, s.length(), dest, offset );
+            return s.length();
+        }
+    }
+    
+    /**
+     * format the name into the byte array, encoded as UTF-8.
+     * @param startTime seven-component start time
+     * @param stopTime seven-component stop time
+     * @param extra extra parameters
+     * @param dest the destination
+     * @param offset the index where the first byte is put.
+     * @return the number of bytes.
+     * @throws ArrayIndexOutOfBoundsException when the array is too short.
+     * @see #formatStartStopRange(int[], int[], java.util.Map) 
+     */
+    public int formatInto( int[] startTime, int[] stopTime, Map<String,String> extra, byte[] dest, int offset ) {
+        FormatBuffer buf= formatBuffer.get();
+        if ( appendFormat( startTime, stopTime, extra, buf ) ) {
+            int n= buf.end-buf.start;
+            boolean ascii= true;
+            for ( int i=buf.start; i<buf.end; i++ ) {
+                char c= buf.chars[i];
+                if ( c>=0x80 ) {
+                    ascii= false;
+                    break;
+                }
+                dest[offset+i-buf.start]= (byte)c;
+            }
+            if ( ascii ) {
+                return n;
+            }
+            byte[] bb= new String( buf.chars, buf.start, n ).getBytes( StandardCharsets.UTF_8 );
+            System.arraycopy( bb, 0, dest, offset, bb.length );
+            return bb.length;
+        } else {
+            byte[] bb= formatWithInserts( startTime, stopTime, extra ).getBytes( StandardCharsets.UTF_8 );
+            System.arraycopy( bb, 0, dest, offset, bb.length );
+            return bb.length;
+        }
+    }
+    
+    /**
+     * names formatted for many rows of time ranges, kept together in one 
+     * character array.  Consecutive rows which are in the same granule share 
+     * one name, so the names are numbered separately from the rows:<pre>
+     *   NameBatch b= t.formatBatch( start, stop, null );
+     *   int k= b.getNameIndex()[row];
+     *   int[] offsets= b.getOffsets();
+     *   // the name of the row is in b.getChars() from offsets[k] to offsets[k+1].
+     * </pre>
+     * @see #formatBatch(long[], long[], java.util.Map) 
+     */
+    public static final class NameBatch {
+        
+        private char[] chars;
+        private int[] offsets;
+        private int nameCount;
+        private final int[] nameIndex;
+        
+        private NameBatch( int size ) {
+            this.chars= new char[ 256 ]; // addName grows these as the names are added.
+            this.offsets= new int[ 16 ];
+            this.nameIndex= new int[size];
+        }
+        
+        /**
+         * add the characters of the next name.
+         */
+        private void addName( char[] c, int start, int end ) {
+            int n= end-start;
+            int length= offsets[nameCount];
+            if ( length+n>chars.length ) {
+                chars= Arrays.copyOf( chars, Math.max( chars.length*2, length+n ) );
+            }
+            System.arraycopy( c, start, chars, length, n );
+            if ( nameCount+2>offsets.length ) {
+                offsets= Arrays.copyOf( offsets, offsets.length*2 );
+            }
+            nameCount++;
+            offsets[nameCount]= length+n;
+        }
+        
+        /**
+         * return the number of rows.
+         * @return the number of rows.
+         */
+        public int size() {
+            return nameIndex.length;
+        }
+        
+        /**
+         * return the number of names, which is less than the number of rows 
+         * when consecutive rows are in the same granule.
+         * @return the number of names.
+         */
+        public int getNameCount() {
+            return nameCount;
+        }
+        
+        /**
+         * return the characters of all the names.  This is not a copy, and
+         * may be longer than the names, which stop at getOffsets()[getNameCount()].
+         * @return the characters of all the names.
+         */
+        public char[] getChars() {
+            return chars;
+        }
+        
+        /**
+         * return the offset of each name in the characters, followed by the 
+         * offset following the last name.  This is not a copy, and has at 
+         * least getNameCount()+1 elements.
+         * @return the offset of each name.
+         */
+        public int[] getOffsets() {
+            return offsets;
+        }
+        
+        /**
+         * return the index of the name of each row.  This is not a copy.
+         * @return the index of the name of each row.
+         */
+        public int[] getNameIndex() {
+            return nameIndex;
+        }
+        
+        /**
+         * return the name of the row.
+         * @param row the row
+         * @return the name.
+         */
+        public String getName( int row ) {
+            int k= nameIndex[row];
+            return new String( chars, offsets[k], offsets[k+1]-offsets[k] );
+        }
+    }
+    
+    /**
+     * format the name for each row of time ranges, putting all the names in 
+     * one character array.  When a row is in the same granule as the row 
+     * before it, as is typical for the times of data records, the name is not 
+     * formatted again and the rows share one name.  For templates without 
+     * regular granules, only rows with the same start and stop as the row 
+     * before share a name.
+     * @param start the start time of each row, as nanoseconds since 1970.
+     * @param stop the stop time of each row, as nanoseconds since 1970.
+     * @param extra extra parameters, which may be null.
+     * @return the names, with the index of the name of each row.
+     * @throws IllegalArgumentException if a name cannot be formatted.
+     * @see TimeUtil#toNanosecondsSince1970(int[], int) 
+     * @see #hasRegularGranules() 
+     */
+    public NameBatch formatBatch( long[] start, long[] stop, Map<String,String> extra ) {
+        if ( start.length!=stop.length ) {
+            throw new IllegalArgumentException("start and stop must be the same length");
+        }
+        NameBatch result= new NameBatch( start.length );
+        boolean regular= hasRegularGranules();
+        int[] tstart= new int[NUM_TIME_DIGITS];
+        int[] tstop= new int[NUM_TIME_DIGITS];
+        long granuleStart= 0;
+        long granuleStop= 0;
+        for ( int i=0; i<start.length; i++ ) {
+            if ( i>0 && ( regular ? ( start[i]>=granuleStart && start[i]<granuleStop ) 
+                    : ( start[i]==start[i-1] && stop[i]==stop[i-1] ) ) ) {
+                result.nameIndex[i]= result.nameCount-1;
+                continue;
+            }
+            TimeUtil.fromNanosecondsSince1970( start[i], tstart, 0 );
+            TimeUtil.fromNanosecondsSince1970( stop[i], tstop, 0 );
+            if ( regular ) {
+                int[] g= granuleAt( granuleIndex( tstart ) );
+                granuleStart= g[0]<TimeUtil.NANOSECONDS_SINCE_1970_FIRST_YEAR ? Long.MIN_VALUE : TimeUtil.toNanosecondsSince1970( g, 0 );
+                granuleStop= g[NUM_TIME_DIGITS]>TimeUtil.NANOSECONDS_SINCE_1970_LAST_YEAR ? Long.MAX_VALUE : TimeUtil.toNanosecondsSince1970( g, NUM_TIME_DIGITS );
+            }
+            FormatBuffer buf= formatBuffer.get();
+            if ( appendFormat( tstart, tstop, extra, buf ) ) {
+                result.addName( buf.chars, buf.start, buf.end );
+            } else {
+                String s= formatWithInserts( tstart, tstop, extra );
+                result.addName( s.toCharArray(), 0, s.length() );
+            }
+            result.nameIndex[i]= result.nameCount-1;
+        }
+        return result;
+    }
+    
+    /**
+     * format the name for each row of time ranges, putting all the names in 
+     * one character array.
+     * @param timeRanges the time ranges, with 14 elements [ Y, m, d, H, M, S, nano, Y, m, d, H, M, S, nano ] for each row.
+     * @param extra extra parameters, which may be null.
+     * @return the names, with the index of the name of each row.
+     * @throws IllegalArgumentException if a name cannot be formatted, or a year is outside of 1678 to 2261.
+     * @see #formatBatch(long[], long[], java.util.Map) 
+     */
+    public NameBatch formatBatch( int[] timeRanges, Map<String,String> extra ) {
+        int n= timeRanges.length / TimeUtil.TIME_RANGE_DIGITS;
+        long[] start= new long[n];
+        long[] stop= new long[n];
+        for ( int i=0; i<n; i++ ) {
+            start[i]= TimeUtil.toNanosecondsSince1970( timeRanges, i*TimeUtil.TIME_RANGE_DIGITS );
+            stop[i]= TimeUtil.toNanosecondsSince1970( timeRanges, i*TimeUtil.TIME_RANGE_DIGITS+NUM_TIME_DIGITS );
+        }
+        return formatBatch( start, stop, extra );
+    }
+    
+    /**
+     * characters of the name being formatted, one for each thread, so that
+     * names can be formatted without creating objects.
+     */
+    private static final class FormatBuffer {
+        
+        char[] chars= new char[100];
+        int length;
+        
+        /**
+         * the formatted name, once leading and trailing spaces are removed.
+         */
+        int start;
+        int end;
+        
+        private static final char[] DIGIT_TENS= new char[100];
+        private static final char[] DIGIT_ONES= new char[100];
+        static {
+            for ( int i=0; i<100; i++ ) {
+                DIGIT_TENS[i]= (char)( '0' + i / 10 );
+                DIGIT_ONES[i]= (char)( '0' + i % 10 );
+            }
+        }
+        
+        void ensure( int n ) {
+            if ( length+n>chars.length ) {
+                chars= Arrays.copyOf( chars, Math.max( chars.length*2, length+n ) );
+            }
+        }
+        
+        void append( String s ) {
+            int n= s.length();
+            ensure(n);
+            s.getChars( 0, n, chars, length );
+            length+= n;
+        }
+        
+        void append( char c ) {
+            ensure(1);
+            chars[length++]= c;
+        }
+        
+        /**
+         * append the non-negative integer, with leading zeros to make at least width digits.
+         * @param digit the integer
+         * @param width the number of digits
+         */
+        void appendDigits( int digit, int width ) {
+            int n= 1;
+            for ( int d= digit; d>=10; d/=10 ) n++;
+            int w= Math.max( n, width );
+            ensure(w);
+            int i= length + w;
+            while ( digit>=100 ) {
+                int r= digit % 100;
+                digit/= 100;
+                chars[--i]= DIGIT_ONES[r];
+                chars[--i]= DIGIT_TENS[r];
+            }
+            chars[--i]= DIGIT_ONES[digit];
+            if ( digit>=10 ) {
+                chars[--i]= DIGIT_TENS[digit];
+            }
+            while ( i>length ) {
+                chars[--i]= '0';
+            }
+            length+= w;
+        }
+    }
+    
+    private static final ThreadLocal<FormatBuffer> formatBuffer= ThreadLocal.withInitial( FormatBuffer::new );
+    
+    /**
+     * format the name by appending each field in turn to the buffer, using 
+     * the padding and month names decided when the template was compiled.
+     * This gives the same result as formatWithInserts, which is used when 
+     * this returns false, for example when field handlers are needed or a 
+     * value is too long for its field.
+     * @param startTime seven-component start time
+     * @param stopTime seven-component stop time
+     * @param extra extra parameters
+     * @param buf the buffer, where chars from start to end contain the name.
+     * @return false if the name cannot be formatted this way.
+     */
+    private boolean appendFormat( int[] startTime, int[] stopTime, Map<String,String> extra, FormatBuffer buf ) {
+        if ( !appendFormat || startShift!=null || stopShift!=null 
+                || ( timeWidthIsExplicit && phasestart!=null && timeWidth[2]>0 ) ) {
+            return false;
+        }
+        buf.length= 0;
+        int[] timel= startTime;
+        for ( int idigit=1; idigit<ndigits; idigit++ ) {
+            if ( idigit==stopTimeDigit ) {
+                timel= stopTime;
+            }
+            buf.append( delims[idigit-1] );
+            if ( offsets[idigit]!=-1 && offsets[idigit]!=buf.length ) {
+                return false;
+            }
+            FieldStep step= steps[idigit];
+            int length= lengths[idigit];
+            if ( step.handler<10 ) {
+                int digit;
+                switch ( step.handler ) {
+                    case 0:
+                        digit = timel[0];
+                        break;
+                    case 1:
+                        digit = timel[0]<2000 ? timel[0] - 1900 : timel[0] - 2000;
+                        break;
+                    case 2:
+                        digit = TimeUtil.dayOfYear( timel[0], timel[1], timel[2] );
+                        break;
+                    case 9:
+                        digit = timel[6]/1000;
+                        break;
+                    default:
+                        digit = timel[step.handler-2];
+                        break;
+                }
+                int delta= step.formatDelta;
+                if ( delta>1 ) {
+                    if ( step.handler==2 || step.handler==3 ) {
+                        digit= ( ( ( digit-1) / delta ) * delta ) + 1;
+                    } else {
+                        digit= ( digit / delta ) * delta;
+                    }
+                }
+                if ( length<0 ) {
+                    if ( digit<0 ) {
+                        return false;
+                    }
+                    buf.appendDigits( digit, 1 );
+                } else {
+                    if ( qualifiersMaps[idigit]!=null ) {
+                        digit= digit / step.div;
+                    }
+                    if ( digit<0 ) {
+                        return false;
+                    }
+                    if ( digit<10 && step.formatPad!=PAD_ZERO ) {
+                        buf.append( (char)( '0' + digit ) );
+                        if ( step.formatPad==PAD_SPACE ) {
+                            buf.append( ' ' );
+                        } else if ( step.formatPad==PAD_UNDERSCORE ) {
+                            buf.append( '_' );
+                        }
+                    } else {
+                        buf.appendDigits( digit, length );
+                    }
+                }
+            } else if ( step.handler==13 ) {
+                int m= timel[1];
+                if ( m<1 || m>12 ) {
+                    return false;
+                }
+                buf.append( step.monthNames[m-1] );
+            } else { // $v
+                if ( length>-1 ) {
+                    buf.ensure(length);
+                    for ( int i=0; i<length; i++ ) {
+                        buf.chars[buf.length++]= '0';
+                    }
+                } else {
+                    buf.append( getArg( extra, "v", "00" ) );
+                }
+            }
+        }
+        buf.append( delims[ndigits-1] );
+        int i0= 0;
+        int i1= buf.length;
+        while ( i0<i1 && buf.chars[i0]<=' ' ) i0++;
+        while ( i1>i0 && buf.chars[i1-1]<=' ' ) i1--;
+        buf.start= i0;
+        buf.end= i1;
+        return true;
+    }
+        
+    /**
+     * format the name by inserting each field, calling field handlers as needed.
+     * @param startTime seven-component start time
+     * @param stopTime seven-component stop time
+     * @param extra extra parameters
+     * @return formatted time, often a resolvable URI.
+     */    
+    private String formatWithInserts( int[] startTime, int[] stopTime, Map<String,String> extra ) {
 
         int[] timeWidthl;
         if ( timeWidthIsExplicit ) {
@@ -2151,7 +5810,7 @@ public class URITemplate {
                     result.insert( offs, ins );
                     offs+= ins.length();
                 } else {
-                    FieldHandler fh1= fieldHandlers.get(fc[idigit]);
+                    FieldHandler fh1= steps[idigit].fieldHandler;
                     int[] timeEnd = stopTime;
                     String ins= fh1.format( timel, TimeUtil.subtract(timeEnd, timel), length, extra );
                     int[] startTimeTest= new int[NUM_TIME_DIGITS];
@@ -0,0 +1,314 @@
+package org.hapiserver;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * URITemplateCache remembers the names most recently parsed and formatted
+ * with a template, for servers which are asked for the same names over and
+ * over, like today's and yesterday's files.  For example:<pre>
+ *   URITemplateCache cache= new URITemplateCache( new URITemplate("ace_mag_$Y_$j.cdf"), 1000 );
+ *   URITemplateCache.Parsed p= cache.parse( "ace_mag_2005_001.cdf" );
+ *   String name= cache.format( p.getStartTime(), p.getStopTime(), null );
+ * </pre>
+ * Names are formatted once for each granule, so any time within a day gives
+ * the same cached name for the template above.  Each cache holds at most
+ * the given number of entries, removing the least recently used, and may be
+ * used by several threads at once.
+ *
+ * @author jbf
+ */
+public class URITemplateCache {
+
+    /**
+     * the result of parsing a name, which cannot be changed.
+     */
+    public static final class Parsed {
+
+        private final int[] timeRange;
+        private final Map<String,String> extra;
+
+        private Parsed( int[] timeRange, Map<String,String> extra ) {
+            this.timeRange= timeRange;
+            this.extra= extra.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap( extra );
+        }
+
+        /**
+         * return one component of the time range.
+         * @param i the index, 0 for the start year through 13 for the stop nanoseconds.
+         * @return the component
+         */
+        public int get( int i ) {
+            return timeRange[i];
+        }
+
+        /**
+         * return a copy of the time range, as a 14-element array.
+         * @return the time range [ Y, m, d, H, M, S, nano, Y, m, d, H, M, S, nano ]
+         */
+        public int[] getTimeRange() {
+            return Arrays.copyOf( timeRange, timeRange.length );
+        }
+
+        /**
+         * return a copy of the start time.
+         * @return the seven-component start time.
+         */
+        public int[] getStartTime() {
+            return TimeUtil.getStartTime( timeRange );
+        }
+
+        /**
+         * return a copy of the stop time.
+         * @return the seven-component stop time.
+         */
+        public int[] getStopTime() {
+            return TimeUtil.getStopTime( timeRange );
+        }
+
+        /**
+         * return the extension results, like $(x,name=sc), which cannot be changed.
+         * @return the extension results, which may be empty.
+         */
+        public Map<String,String> getExtra() {
+            return extra;
+        }
+
+        @Override
+        public String toString() {
+            return TimeUtil.formatIso8601TimeRange( timeRange ) + ( extra.isEmpty() ? "" : " " + extra );
+        }
+    }
+
+    /**
+     * the key for a formatted name: the granule index, or the start and stop
+     * times when the template's granules are not regular, and the extra parameters.
+     */
+    private static final class FormatKey {
+
+        private final long granule;
+        private final int[] times;
+        private final Map<String,String> extra;
+        private final int hash;
+
+        FormatKey( long granule, int[] times, Map<String,String> extra ) {
+            this.granule= granule;
+            this.times= times;
+            this.extra= extra;
+            this.hash= ( Long.hashCode( granule ) * 31 + Arrays.hashCode( times ) ) * 31 + extra.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( !( o instanceof FormatKey ) ) {
+                return false;
+            }
+            FormatKey k= (FormatKey)o;
+            return granule==k.granule && Arrays.equals( times, k.times ) && extra.equals( k.extra );
+        }
+    }
+
+    /**
+     * a map which removes the least recently used entry when it has more
+     * than maxSize entries.  It must be used while holding its lock.
+     */
+    private static final class LruMap<K,V> extends LinkedHashMap<K,V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        LruMap( int maxSize ) {
+            super( 16, 0.75f, true );
+            this.maxSize= maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<K,V> eldest ) {
+            return size()>maxSize;
+        }
+    }
+
+    private final URITemplate template;
+
+    private final boolean regular;
+
+    private final LruMap<String,Parsed> parsed;
+
+    private final LruMap<FormatKey,String> formatted;
+
+    private final LongAdder parseHits= new LongAdder();
+    private final LongAdder parseMisses= new LongAdder();
+    private final LongAdder formatHits= new LongAdder();
+    private final LongAdder formatMisses= new LongAdder();
+
+    /**
+     * create a cache for the template.
+     * @param template the template
+     * @param maxSize the number of parsed names, and the number of formatted names, to keep.
+     */
+    public URITemplateCache( URITemplate template, int maxSize ) {
+        if ( maxSize<1 ) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.template= template;
+        this.regular= template.hasRegularGranules();
+        this.parsed= new LruMap<>( maxSize );
+        this.formatted= new LruMap<>( maxSize );
+    }
+
+    /**
+     * return the template.
+     * @return the template.
+     */
+    public URITemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * parse the name, returning the result from the cache when the name
+     * was parsed recently.  Names which do not match are not kept.
+     * @param name the name, like ace_mag_2005_001.cdf
+     * @return the time range and extension results, which cannot be changed.
+     * @throws ParseException when the name does not match the template.
+     */
+    public Parsed parse( String name ) throws ParseException {
+        Parsed result;
+        synchronized ( parsed ) {
+            result= parsed.get( name );
+        }
+        if ( result!=null ) {
+            parseHits.increment();
+            return result;
+        }
+        parseMisses.increment();
+        Map<String,String> extra= new HashMap<>();
+        int[] timeRange= template.parse( name, extra );
+        result= new Parsed( timeRange, extra );
+        synchronized ( parsed ) {
+            parsed.put( name, result );
+        }
+        return result;
+    }
+
+    /**
+     * format the name, returning the result from the cache when a name for
+     * the same granule and extra parameters was formatted recently.
+     * @param startTime seven-component start time
+     * @param stopTime seven-component stop time
+     * @param extra extra parameters, which may be null.
+     * @return the formatted name.
+     * @see URITemplate#formatStartStopRange(int[], int[], java.util.Map)
+     */
+    public String format( int[] startTime, int[] stopTime, Map<String,String> extra ) {
+        Map<String,String> e= extra==null || extra.isEmpty() ? Collections.emptyMap() : new HashMap<>( extra );
+        FormatKey key;
+        if ( regular && startTime[0]>1582 ) {
+            key= new FormatKey( template.granuleIndex( startTime ), null, e );
+        } else {
+            int[] times= new int[TimeUtil.TIME_RANGE_DIGITS];
+            System.arraycopy( startTime, 0, times, 0, TimeUtil.TIME_DIGITS );
+            System.arraycopy( stopTime, 0, times, TimeUtil.TIME_DIGITS, TimeUtil.TIME_DIGITS );
+            key= new FormatKey( 0, times, e );
+        }
+        String result;
+        synchronized ( formatted ) {
+            result= formatted.get( key );
+        }
+        if ( result!=null ) {
+            formatHits.increment();
+            return result;
+        }
+        formatMisses.increment();
+        result= template.formatStartStopRange( Arrays.copyOf( startTime, TimeUtil.TIME_DIGITS ),
+                Arrays.copyOf( stopTime, TimeUtil.TIME_DIGITS ), extra==null ? new HashMap<>() : extra );
+        synchronized ( formatted ) {
+            formatted.put( key, result );
+        }
+        return result;
+    }
+
+    /**
+     * return the number of parsed names in the cache.
+     * @return the number of parsed names in the cache.
+     */
+    public int getParseSize() {
+        synchronized ( parsed ) {
+            return parsed.size();
+        }
+    }
+
+    /**
+     * return the number of formatted names in the cache.
+     * @return the number of formatted names in the cache.
+     */
+    public int getFormatSize() {
+        synchronized ( formatted ) {
+            return formatted.size();
+        }
+    }
+
+    /**
+     * return the number of times parse found the name in the cache.
+     * @return the number of hits.
+     */
+    public long getParseHits() {
+        return parseHits.sum();
+    }
+
+    /**
+     * return the number of times parse did not find the name in the cache.
+     * @return the number of misses.
+     */
+    public long getParseMisses() {
+        return parseMisses.sum();
+    }
+
+    /**
+     * return the number of times format found the name in the cache.
+     * @return the number of hits.
+     */
+    public long getFormatHits() {
+        return formatHits.sum();
+    }
+
+    /**
+     * return the number of times format did not find the name in the cache.
+     * @return the number of misses.
+     */
+    public long getFormatMisses() {
+        return formatMisses.sum();
+    }
+
+    /**
+     * remove all the names from the cache, and reset the counters.
+     */
+    public void clear() {
+        synchronized ( parsed ) {
+            parsed.clear();
+        }
+        synchronized ( formatted ) {
+            formatted.clear();
+        }
+        parseHits.reset();
+        parseMisses.reset();
+        formatHits.reset();
+        formatMisses.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "URITemplateCache " + template.spec + " parse " + getParseHits() + "/" + ( getParseHits() + getParseMisses() )
+                + " format " + getFormatHits() + "/" + ( getFormatHits() + getFormatMisses() );
+    }
+}
@@ -0,0 +1,341 @@
+package org.hapiserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * URITemplateRouter identifies which of many templates a file name
+ * matches, for example when a directory contains files from hundreds
+ * of datasets.  The literal text which starts each template is put into
+ * a trie, so that walking the name through the trie once finds the only
+ * templates which might match, and only these are parsed.  Templates which 
+ * start with a field, like $Y$m$d_$(x;name=sc).dat, are put into a second 
+ * trie by the literal text which ends them, which is walked from the end 
+ * of the name.  Only templates which both start and end with a field are 
+ * tried for every name.  For example:<pre>
+ *   URITemplateRouter router= new URITemplateRouter( Arrays.asList(
+ *       new URITemplate("ace_mag_$Y_$j.cdf"), new URITemplate("ace_swe_$Y_$j.cdf") ) );
+ *   int[] itimeRange= new int[14];
+ *   int i= router.routeFirst( "ace_swe_2005_001.cdf", itimeRange );
+ * </pre>
+ * Templates with a longer literal start are tried before templates with
+ * a shorter one, and templates with the same literal start are tried in
+ * the order they were given.  Templates found by their literal end are tried 
+ * next, in the same way, and then those with no literal start or end.  
+ * A router may be used by several threads at once.
+ *
+ * @author jbf
+ */
+public class URITemplateRouter {
+
+    /**
+     * node of the trie, containing the templates whose literal start ends
+     * here, and the nodes for each following character.  In the trie of
+     * literal ends, the characters are added from the end.
+     */
+    private static final class Node {
+
+        final Node parent;
+
+        /**
+         * the following characters, sorted.
+         */
+        char[] keys= new char[0];
+
+        Node[] children= new Node[0];
+
+        /**
+         * the index of each template whose literal start ends at this node.
+         */
+        int[] templates= new int[0];
+
+        Node( Node parent ) {
+            this.parent= parent;
+        }
+
+        /**
+         * return the node following this one for the character, or null.
+         * @param c the character
+         * @return the node or null.
+         */
+        Node child( char c ) {
+            int i= Arrays.binarySearch( keys, c );
+            return i<0 ? null : children[i];
+        }
+
+        /**
+         * return the node following this one for the character, adding it
+         * if it is not found.
+         * @param c the character
+         * @return the node
+         */
+        Node addChild( char c ) {
+            int i= Arrays.binarySearch( keys, c );
+            if ( i>=0 ) {
+                return children[i];
+            }
+            int ins= -1-i;
+            char[] newKeys= new char[keys.length+1];
+            Node[] newChildren= new Node[keys.length+1];
+            System.arraycopy( keys, 0, newKeys, 0, ins );
+            System.arraycopy( children, 0, newChildren, 0, ins );
+            System.arraycopy( keys, ins, newKeys, ins+1, keys.length-ins );
+            System.arraycopy( children, ins, newChildren, ins+1, keys.length-ins );
+            newKeys[ins]= c;
+            newChildren[ins]= new Node( this );
+            keys= newKeys;
+            children= newChildren;
+            return newChildren[ins];
+        }
+    }
+
+    /**
+     * a template which matched a name, and the time range found.
+     */
+    public static final class Match {
+
+        private final int index;
+        private final URITemplate template;
+        private final int[] timeRange;
+
+        private Match( int index, URITemplate template, int[] timeRange ) {
+            this.index= index;
+            this.template= template;
+            this.timeRange= timeRange;
+        }
+
+        /**
+         * return the index of the template, in the list given to the router.
+         * @return the index of the template.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * return the template which matched.
+         * @return the template which matched.
+         */
+        public URITemplate getTemplate() {
+            return template;
+        }
+
+        /**
+         * return the time range found, as a 14-element array.
+         * @return the time range [ Y, m, d, H, M, S, nano, Y, m, d, H, M, S, nano ]
+         */
+        public int[] getTimeRange() {
+            return Arrays.copyOf( timeRange, timeRange.length );
+        }
+
+        @Override
+        public String toString() {
+            return template.toString() + ": " + TimeUtil.formatIso8601TimeRange( timeRange );
+        }
+    }
+
+    private final URITemplate[] templates;
+
+    private final Node root;
+
+    /**
+     * the trie of the literal ends of templates which start with a field.
+     */
+    private final Node suffixRoot;
+
+    /**
+     * create a router for the templates.
+     * @param templates the templates, which are tried in this order when their literal starts are the same.
+     */
+    public URITemplateRouter( List<URITemplate> templates ) {
+        this.templates= templates.toArray( new URITemplate[templates.size()] );
+        this.root= new Node( null );
+        this.suffixRoot= new Node( null );
+        for ( int i=0; i<this.templates.length; i++ ) {
+            URITemplate t= this.templates[i];
+            String prefix= t.delims[0];
+            String suffix= t.delims[t.ndigits-1];
+            Node n;
+            if ( prefix.length()==0 && suffix.length()>0 ) {
+                n= suffixRoot;
+                for ( int j=suffix.length()-1; j>=0; j-- ) {
+                    n= n.addChild( suffix.charAt(j) );
+                }
+            } else {
+                n= root;
+                for ( int j=0; j<prefix.length(); j++ ) {
+                    n= n.addChild( prefix.charAt(j) );
+                }
+            }
+            n.templates= Arrays.copyOf( n.templates, n.templates.length+1 );
+            n.templates[n.templates.length-1]= i;
+        }
+    }
+
+    /**
+     * return the number of templates.
+     * @return the number of templates.
+     */
+    public int size() {
+        return templates.length;
+    }
+
+    /**
+     * return the template at the index.
+     * @param index the index, in the list given to the router.
+     * @return the template.
+     */
+    public URITemplate getTemplate( int index ) {
+        return templates[index];
+    }
+
+    /**
+     * return the deepest node reached by the name's characters.
+     * @param name the name
+     * @return the node, which may be the root.
+     */
+    private Node walk( CharSequence name ) {
+        Node n= root;
+        int len= name.length();
+        for ( int i=0; i<len; i++ ) {
+            Node c= n.child( name.charAt(i) );
+            if ( c==null ) {
+                break;
+            }
+            n= c;
+        }
+        return n;
+    }
+
+    /**
+     * return the deepest node of the trie of literal ends reached by the 
+     * name's characters, starting from the last.
+     * @param name the name
+     * @return the node, which may be the root of the trie of literal ends.
+     */
+    private Node walkBack( CharSequence name ) {
+        Node n= suffixRoot;
+        for ( int i=name.length()-1; i>=0; i-- ) {
+            Node c= n.child( name.charAt(i) );
+            if ( c==null ) {
+                break;
+            }
+            n= c;
+        }
+        return n;
+    }
+
+    /**
+     * find the first template which matches the name, and parse the name
+     * into the 14-element array provided.  Unless the template has extension 
+     * fields, this does not allocate memory, so that many names can be routed quickly.
+     * @param name the name, like ace_swe_2005_001.cdf
+     * @param result a 14-element array which will contain [ Y, m, d, H, M, S, nano, Y, m, d, H, M, S, nano ]
+     * @return the index of the template, or -1 if no template matches.
+     */
+    public int routeFirst( CharSequence name, int[] result ) {
+        return routeFirst( name, result, null, walk( name ), walkBack( name ) );
+    }
+
+    /**
+     * try the templates of the node and its parents, up to but not including 
+     * the root of the trie, then those of the node and parents found from the
+     * literal end, and then those of the root.
+     * @param name the name
+     * @param result a 14-element array for the time range.
+     * @param extra extension results, or null.
+     * @param n the node reached by the literal start.
+     * @param back the node reached by the literal end.
+     * @return the index of the template, or -1 if no template matches.
+     */
+    private int routeFirst( CharSequence name, int[] result, Map<String,String> extra, Node n, Node back ) {
+        for ( ; n!=root; n= n.parent ) {
+            int i= tryTemplates( n, name, result, extra );
+            if ( i>-1 ) return i;
+        }
+        for ( ; back!=null; back= back.parent ) {
+            int i= tryTemplates( back, name, result, extra );
+            if ( i>-1 ) return i;
+        }
+        return tryTemplates( root, name, result, extra );
+    }
+
+    /**
+     * return the first of the node's templates which matches the name.
+     * @param n the node
+     * @param name the name
+     * @param result a 14-element array for the time range.
+     * @param extra extension results, or null.
+     * @return the index of the template, or -1 if none matches.
+     */
+    private int tryTemplates( Node n, CharSequence name, int[] result, Map<String,String> extra ) {
+        for ( int i: n.templates ) {
+            if ( extra!=null ) {
+                extra.clear();
+            }
+            if ( templates[i].tryParse( name, 0, name.length(), result, extra, null )==URITemplate.PARSE_OK ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * find all the templates which match the name, and the time range found
+     * by each.
+     * @param name the name, like ace_swe_2005_001.cdf
+     * @return the matches, in the order they are tried, which may be empty.
+     */
+    public List<Match> route( CharSequence name ) {
+        List<Match> result= null;
+        int[] timeRange= new int[TimeUtil.TIME_RANGE_DIGITS];
+        Node n;
+        for ( n= walk( name ); n!=root; n= n.parent ) {
+            result= addMatches( n, name, timeRange, result );
+        }
+        for ( n= walkBack( name ); n!=null; n= n.parent ) {
+            result= addMatches( n, name, timeRange, result );
+        }
+        result= addMatches( root, name, timeRange, result );
+        return result==null ? Collections.emptyList() : result;
+    }
+
+    /**
+     * add a match for each of the node's templates which matches the name.
+     * @param n the node
+     * @param name the name
+     * @param timeRange a 14-element array used while parsing.
+     * @param result the list of matches, or null if there are none yet.
+     * @return the list of matches, or null if there are none yet.
+     */
+    private List<Match> addMatches( Node n, CharSequence name, int[] timeRange, List<Match> result ) {
+        for ( int i: n.templates ) {
+            if ( templates[i].tryParse( name, timeRange )==URITemplate.PARSE_OK ) {
+                if ( result==null ) {
+                    result= new ArrayList<>(1);
+                }
+                result.add( new Match( i, templates[i], timeRange.clone() ) );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * find the first template which matches the name, and parse the name,
+     * returning extension results like $(x,name=sc) as well.
+     * @param name the name, like ace_swe_2005_001.cdf
+     * @param result a 14-element array which will contain [ Y, m, d, H, M, S, nano, Y, m, d, H, M, S, nano ]
+     * @param extra extension results, like $(x,name=sc) appear here.
+     * @return the index of the template, or -1 if no template matches.
+     */
+    public int routeFirst( CharSequence name, int[] result, Map<String,String> extra ) {
+        int i= routeFirst( name, result, extra, walk( name ), walkBack( name ) );
+        if ( i==-1 ) {
+            extra.clear();
+        }
+        return i;
+    }
+}
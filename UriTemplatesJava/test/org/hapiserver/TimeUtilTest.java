@@ -1,7 +1,11 @@
 
 package org.hapiserver;
 
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.time.LocalDate;
+import java.util.Arrays;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -155,6 +159,35 @@ public class TimeUtilTest {
     }
     
     
+    /**
+     * Test of RangeCursor class, of class TimeUtil.
+     */
+    @Test
+    public void testRangeCursor() {
+        System.out.println("RangeCursor");
+        TimeUtil.RangeCursor c= new TimeUtil.RangeCursor( new int[] { 2022,12,5,0,0,0,0, 2022,12,15,0,0,0,0 } );
+        c.next();
+        assertEquals( "2022-12-15/2022-12-25", c.toString() );
+        c.previous();
+        c.previous();
+        assertEquals( "2022-11-25/2022-12-05", c.toString() );
+        c.set( new int[] { 2022,1,1,0,0,0,0, 2022,2,1,0,0,0,0 } );
+        int n= 0;
+        while ( c.startsBefore( new int[] { 2023,1,1,0,0,0,0 } ) ) {
+            c.next();
+            n++;
+        }
+        assertEquals( 12, n );
+        int[] result= new int[16];
+        c.copyTo( result, 2 );
+        assertArrayEquals( new int[] { 0,0, 2023,1,1,0,0,0,0, 2023,2,1,0,0,0,0 }, result );
+        
+        int[] tr= new int[] { 2022,12,5,0,0,0,0, 2022,12,15,0,0,0,0 };
+        TimeUtil.nextRange( tr, tr );
+        assertArrayEquals( new int[] { 2022,12,15,0,0,0,0, 2022,12,25,0,0,0,0 }, tr );
+    }
+    
+    
     /**
      * Test of ceil method, of class TimeUtil.
      */
@@ -225,6 +258,52 @@ public class TimeUtilTest {
         expResult = new int[] { 1980, 1, 6, 0, 0, 0, 0 };
         TimeUtil.normalizeTime(time);
         assertArrayEquals( expResult, time );            
+        
+        time = new int[] { 2000, 1, 1, 0, 0, 5000000, 0 };
+        expResult = new int[] { 2000, 2, 27, 20, 53, 20, 0 };
+        TimeUtil.normalizeTime(time);
+        assertArrayEquals( expResult, time );
+        
+        time = new int[] { 2000, 1, 3000, 0, 0, 0, 0 };
+        expResult = new int[] { 2008, 3, 18, 0, 0, 0, 0 };
+        TimeUtil.normalizeTime(time);
+        assertArrayEquals( expResult, time );
+        
+        time = new int[] { 2019, 12, 400, 0, 0, 0, 0 };
+        expResult = new int[] { 2021, 1, 3, 0, 0, 0, 0 };
+        TimeUtil.normalizeTime(time);
+        assertArrayEquals( expResult, time );
+        
+        time = new int[] { 2000, 3, 1, -100, 0, 0, -1000 };
+        expResult = new int[] { 2000, 2, 25, 19, 59, 59, 999999000 };
+        TimeUtil.normalizeTime(time);
+        assertArrayEquals( expResult, time );
+        
+        time = new int[] { 2020, -30, 1, 0, 0, 0, 0 };
+        expResult = new int[] { 2017, 6, 1, 0, 0, 0, 0 };
+        TimeUtil.normalizeTime(time);
+        assertArrayEquals( expResult, time );
+        
+        // the year is checked after the days are carried.
+        time = new int[] { 2400, 12, 40, 0, 0, 0, 0 };
+        expResult = new int[] { 2401, 1, 9, 0, 0, 0, 0 };
+        TimeUtil.normalizeTime(time);
+        assertArrayEquals( expResult, time );
+        
+        time = new int[] { 9000, 12, 32, 0, 0, 0, 0 };
+        try {
+            TimeUtil.normalizeTime(time);
+            fail("year 9001 should be rejected");
+        } catch ( IllegalArgumentException ex ) {
+            assertEquals( "year must be between 1582 and 9000", ex.getMessage() );
+        }
+        
+        time = new int[] { Integer.MAX_VALUE, 1, -1, 0, 0, 0, 0 };
+        try {
+            TimeUtil.normalizeTime(time);
+            fail("year should be rejected");
+        } catch ( IllegalArgumentException ex ) {
+        }
     }
     
     /**
@@ -345,6 +424,44 @@ public class TimeUtilTest {
         assertArrayEquals(expResult, result);
     }
 
+    /**
+     * Test of the calendar tables used by julianDay, fromJulianDay, dayOfYear, 
+     * monthForDayOfYear and daysInMonth, for every day from 1583 through 9000, of class TimeUtil.
+     */
+    @Test
+    public void testCalendarTables() {
+        System.out.println("calendarTables");
+        int[] result= new int[7];
+        LocalDate date= LocalDate.of( 1583, 1, 1 );
+        LocalDate last= LocalDate.of( 9000, 12, 31 );
+        while ( !date.isAfter(last) ) {
+            int year= date.getYear();
+            int month= date.getMonthValue();
+            int day= date.getDayOfMonth();
+            int julian= (int)date.toEpochDay() + 2440588;
+            assertEquals( julian, TimeUtil.julianDay( year, month, day ) );
+            assertEquals( julian, TimeUtil.julianDay( year, 1, date.getDayOfYear() ) );
+            TimeUtil.fromJulianDay( julian, result, 0 );
+            if ( result[0]!=year || result[1]!=month || result[2]!=day ) {
+                fail( "fromJulianDay(" + julian + ") should be " + date + ", got " + Arrays.toString(result) );
+            }
+            assertEquals( date.getDayOfYear(), TimeUtil.dayOfYear( year, month, day ) );
+            assertEquals( month, TimeUtil.monthForDayOfYear( year, date.getDayOfYear() ) );
+            if ( day==1 ) {
+                assertEquals( date.lengthOfMonth(), TimeUtil.daysInMonth( year, month ) );
+            }
+            date= date.plusDays(1);
+        }
+        assertArrayEquals( new int[] { 9001, 1, 1, 0, 0, 0, 0 }, TimeUtil.fromJulianDay( TimeUtil.julianDay( 9000, 12, 32 ) ) );
+        assertEquals( TimeUtil.julianDay( 9001, 3, 1 ), TimeUtil.julianDay( 9001, 2, 28 ) + 1 );
+        
+        // times the writers accept can also be added to.
+        int[] t= new int[] { 2408, 1, 175, 0, 0, 0, 0 };
+        assertEquals( "2408-06-23T00:00:00.000000000Z", TimeUtil.isoTimeFromArray( t ) );
+        assertArrayEquals( new int[] { 2408, 6, 24, 0, 0, 0, 0 }, TimeUtil.add( t, new int[] { 0, 0, 1, 0, 0, 0, 0 } ) );
+        assertArrayEquals( new int[] { 2408, 6, 22, 0, 0, 0, 0 }, TimeUtil.subtract( t, new int[] { 0, 0, 1, 0, 0, 0, 0 } ) );
+    }
+
     /**
      * Test of fromJulianDay method, of class TimeUtil.
      */
@@ -358,6 +475,62 @@ public class TimeUtilTest {
         s= TimeUtil.fromMillisecondsSince1970(1);
         assertEquals( s, "1970-01-01T00:00:00.001Z");
     }
+
+    /**
+     * Test of toNanosecondsSince1970 and fromNanosecondsSince1970 methods, of class TimeUtil.
+     */
+    @Test
+    public void testNanosecondsSince1970() {
+        System.out.println("nanosecondsSince1970");
+        int[] t= new int[] { 0,0,0, 2000,1,2,0,0,0,1 };
+        assertEquals( 946771200000000001L, TimeUtil.toNanosecondsSince1970( t, 3 ) );
+        assertEquals( 0L, TimeUtil.toNanosecondsSince1970( new int[] { 1970,1,1,0,0,0,0 }, 0 ) );
+        int[] r= new int[7];
+        TimeUtil.fromNanosecondsSince1970( -1L, r, 0 );
+        assertArrayEquals( new int[] { 1969,12,31,23,59,59,999999999 }, r );
+        TimeUtil.fromNanosecondsSince1970( TimeUtil.toNanosecondsSince1970( new int[] { 2261,12,31,23,59,59,999999999 }, 0 ), r, 0 );
+        assertArrayEquals( new int[] { 2261,12,31,23,59,59,999999999 }, r );
+        TimeUtil.fromNanosecondsSince1970( TimeUtil.toNanosecondsSince1970( new int[] { 1678,1,1,0,0,0,0 }, 0 ), r, 0 );
+        assertArrayEquals( new int[] { 1678,1,1,0,0,0,0 }, r );
+    }
+
+    /**
+     * Test of toMillisecondsSince1970 and fromMillisecondsSince1970 methods, of class TimeUtil.
+     */
+    @Test
+    public void testMillisecondsSince1970() {
+        System.out.println("millisecondsSince1970");
+        int[] t= new int[] { 2000,1,2,0,0,0,1999999 };
+        assertEquals( 946771200001L, TimeUtil.toMillisecondsSince1970( t, 0 ) );
+        assertEquals( TimeUtil.toMillisecondsSince1970("2020-04-21T12:20:01.123Z"), 
+                TimeUtil.toMillisecondsSince1970( new int[] { 2020,4,21,12,20,1,123000000 }, 0 ) );
+        int[] r= new int[7];
+        TimeUtil.fromMillisecondsSince1970( -1L, r, 0 );
+        assertArrayEquals( new int[] { 1969,12,31,23,59,59,999000000 }, r );
+        TimeUtil.fromMillisecondsSince1970( TimeUtil.toMillisecondsSince1970( new int[] { 8999,12,31,0,0,0,0 }, 0 ), r, 0 );
+        assertArrayEquals( new int[] { 8999,12,31,0,0,0,0 }, r );
+    }
+    
+    /**
+     * Test of add, subtract and getComponent methods for nanoseconds since 1970, of class TimeUtil.
+     */
+    @Test
+    public void testNanosecondsArithmetic() {
+        System.out.println("nanosecondsArithmetic");
+        long t= TimeUtil.toNanosecondsSince1970( new int[] { 2000,1,31,12,0,0,0 }, 0 );
+        long t1= TimeUtil.add( t, new int[] { 0,1,0,0,0,0,0 } );
+        int[] r= new int[7];
+        TimeUtil.fromNanosecondsSince1970( t1, r, 0 );
+        assertArrayEquals( TimeUtil.add( new int[] { 2000,1,31,12,0,0,0 }, new int[] { 0,1,0,0,0,0,0 } ), r );
+        assertEquals( 62, TimeUtil.dayOfYear( t1 ) );
+        assertEquals( 3, TimeUtil.getComponent( t1, TimeUtil.COMPONENT_MONTH ) );
+        assertEquals( 12, TimeUtil.getComponent( t1, TimeUtil.COMPONENT_HOUR ) );
+        assertEquals( TimeUtil.julianDay( 2000, 3, 2 ), TimeUtil.julianDay( t1 ) );
+        long t2= TimeUtil.subtract( t, new int[] { 0,0,0,13,0,0,1 } );
+        TimeUtil.fromNanosecondsSince1970( t2, r, 0 );
+        assertArrayEquals( new int[] { 2000,1,30,22,59,59,999999999 }, r );
+        assertTrue( t2 < t && t < t1 );
+    }
     
     /**
      * Test of subtract method, of class TimeUtil.
@@ -372,6 +545,23 @@ public class TimeUtilTest {
         assertArrayEquals(expResult, result);
     }
 
+    /**
+     * Test of addInto and subtractInto methods, of class TimeUtil.
+     */
+    @Test
+    public void testAddInto() {
+        System.out.println("addInto");
+        int[] tr = new int[] { 2020, 7, 8, 23, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+        int[] offset = new int[] { 0, 0, 0, 2, 0, 0, 0 };
+        TimeUtil.addInto( tr, 0, offset, tr, 7 );
+        assertArrayEquals( new int[] { 2020, 7, 8, 23, 0, 0, 0, 2020, 7, 9, 1, 0, 0, 0 }, tr );
+        TimeUtil.subtractInto( tr, 7, offset, tr, 7 );
+        assertArrayEquals( new int[] { 2020, 7, 8, 23, 0, 0, 0, 2020, 7, 8, 23, 0, 0, 0 }, tr );
+        int[] t= new int[7];
+        TimeUtil.getStopTime( new int[] { 2020, 7, 8, 23, 0, 0, 0, 2020, 7, 9, 1, 0, 0, 0 }, t, 0 );
+        assertArrayEquals( new int[] { 2020, 7, 9, 1, 0, 0, 0 }, t );
+    }
+
     /**
      * Test of add method, of class TimeUtil.
      */
@@ -576,6 +766,37 @@ public class TimeUtilTest {
         assertEquals(expResult, result);
     }
 
+    /**
+     * Test of formatIso8601Time method writing into characters, bytes and a StringBuilder, of class TimeUtil.
+     */
+    @Test
+    public void testFormatIso8601TimeStyles() {
+        System.out.println("formatIso8601TimeStyles");
+        int[] tr= new int[] { 1999, 12, 31, 23, 0, 0, 0, 2000, 1, 45, 0, 0, 30, 120000000 };
+        char[] buf= new char[40];
+        buf[0]= '[';
+        int n= TimeUtil.formatIso8601Time( tr, 0, TimeUtil.ISO8601_FULL, buf, 1 );
+        assertEquals( "[1999-12-31T23:00:00.000000000Z", new String( buf, 0, n ) );
+        assertEquals( "2000-02-14T00:00:30.120Z", TimeUtil.formatIso8601Time( tr, 7, TimeUtil.ISO8601_BRIEF ) );
+        assertEquals( "1999-365T23:00:00.000000000Z", TimeUtil.formatIso8601Time( tr, 0, TimeUtil.ISO8601_DAY_OF_YEAR ) );
+        assertEquals( "2000-02-14Z", TimeUtil.formatIso8601Time( tr, 7, TimeUtil.ISO8601_DATE ) );
+        StringBuilder sb= new StringBuilder("t=");
+        TimeUtil.formatIso8601Time( tr, 7, TimeUtil.ISO8601_DAY_OF_YEAR_DATE, sb );
+        assertEquals( "t=2000-045Z", sb.toString() );
+        byte[] bb= new byte[30];
+        n= TimeUtil.formatIso8601Time( tr, 0, TimeUtil.ISO8601_DATE, bb, 0 );
+        assertEquals( "1999-12-31Z", new String( bb, 0, n, StandardCharsets.US_ASCII ) );
+        bb= new byte[40];
+        n= TimeUtil.formatIso8601Time( tr, 7, TimeUtil.ISO8601_DAY_OF_YEAR, bb, 2 );
+        assertEquals( "2000-045T00:00:30.120000000Z", new String( bb, 2, n-2, StandardCharsets.US_ASCII ) );
+        n= TimeUtil.formatIso8601Time( new int[] { 2000, 1, 1, 0, 0, 0, -5 }, 0, TimeUtil.ISO8601_FULL, bb, 0 );
+        assertEquals( "2000-01-01T00:00:00.-00000005Z", new String( bb, 0, n, StandardCharsets.US_ASCII ) );
+        assertArrayEquals( new int[] { 2000, 1, 45 }, Arrays.copyOfRange( tr, 7, 10 ) );
+        assertEquals( "2020-04-21T00:00Z", TimeUtil.reformatIsoTime( "2020-01-01T00:00Z", "2020-04-21" ) );
+        assertEquals( "2020-04-21T12:00:00.500", TimeUtil.reformatIsoTime( "2020-01-01T00:00:00.000", "2020-04-21T12:00:00.5Z" ) );
+        assertEquals( "2020-05-01T00:00Z", TimeUtil.reformatIsoTime( "2020-01-01T00:00Z", "2020-04-30T24:00Z" ) );
+    }
+
     /**
      * Test of dayOfWeek method, of class TimeUtil.
      */
@@ -629,4 +850,36 @@ public class TimeUtilTest {
         }
     }
     
+    /**
+     * Test of parseISO8601Time and parseISO8601TimeRange methods which scan 
+     * within a CharSequence, of class TimeUtil.
+     */
+    @Test
+    public void testParseISO8601TimeCharSequence() throws ParseException {
+        System.out.println("parseISO8601TimeCharSequence");
+        CharSequence line= CharBuffer.wrap( "ace 2020-033T01:02:03.5Z 2020-02-28T12:00/13:30 end" );
+        int[] result= new int[14];
+        TimeUtil.parseISO8601Time( line, 4, 24, result, 7 );
+        assertArrayEquals( new int[] { 2020, 2, 2, 1, 2, 3, 500000000 }, Arrays.copyOfRange( result, 7, 14 ) );
+        TimeUtil.parseISO8601TimeRange( line, 25, 47, result, 0 );
+        assertArrayEquals( new int[] { 2020, 2, 28, 12, 0, 0, 0, 2020, 2, 28, 13, 30, 0, 0 }, result );
+        TimeUtil.parseISO8601Time( "2020-02-30T24:00:00.123456789123", 0, 32, result, 0 );
+        assertArrayEquals( new int[] { 2020, 3, 2, 0, 0, 0, 123456789 }, Arrays.copyOf( result, 7 ) );
+        assertArrayEquals( TimeUtil.isoTimeToArray("2022-W08"), TimeUtil.isoTimeToArray("2022W08") );
+        try {
+            TimeUtil.parseISO8601Time( line, 0, 24, result, 0 );
+            fail( "ace is not a time" );
+        } catch ( IllegalArgumentException ex ) {
+            // expected
+        }
+        for ( String time: new String[] { "1000-01-01", "0000-01-01", "9001-001" } ) {
+            try {
+                TimeUtil.parseISO8601Time( time, 0, time.length(), result, 0 );
+                fail( "year of " + time + " is out of range" );
+            } catch ( IllegalArgumentException ex ) {
+                assertEquals( "year must be between 1582 and 9000", ex.getMessage() );
+            }
+        }
+    }
+    
 }
@@ -0,0 +1,67 @@
+package org.hapiserver;
+
+import java.text.ParseException;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of URITemplateCache, which remembers parsed and formatted names.
+ * @author jbf
+ */
+public class URITemplateCacheTest {
+
+    public URITemplateCacheTest() {
+    }
+
+    /**
+     * Test of parse method, of class URITemplateCache.
+     */
+    @Test
+    public void testParse() throws ParseException {
+        System.out.println("parse");
+        URITemplateCache cache= new URITemplateCache( new URITemplate("ace_$(x;name=sc)_$Y_$j.cdf"), 2 );
+        URITemplateCache.Parsed p= cache.parse( "ace_mag_2005_001.cdf" );
+        assertArrayEquals( new int[] { 2005,1,1,0,0,0,0, 2005,1,2,0,0,0,0 }, p.getTimeRange() );
+        assertEquals( "mag", p.getExtra().get("sc") );
+        p.getTimeRange()[0]= 1999;
+        assertSame( p, cache.parse( "ace_mag_2005_001.cdf" ) );
+        assertEquals( 2005, p.get(0) );
+        try {
+            p.getExtra().put( "sc", "swe" );
+            fail( "extra should not be modifiable" );
+        } catch ( UnsupportedOperationException ex ) {
+            // expected
+        }
+        cache.parse( "ace_mag_2005_002.cdf" );
+        cache.parse( "ace_mag_2005_003.cdf" );
+        assertEquals( 2, cache.getParseSize() );
+        assertEquals( 1, cache.getParseHits() );
+        assertEquals( 3, cache.getParseMisses() );
+        try {
+            cache.parse( "README.txt" );
+            fail( "README.txt should not parse" );
+        } catch ( ParseException ex ) {
+            // expected
+        }
+    }
+
+    /**
+     * Test of format method, of class URITemplateCache.
+     */
+    @Test
+    public void testFormat() {
+        System.out.println("format");
+        URITemplateCache cache= new URITemplateCache( new URITemplate("$(x;name=sc)_$Y$m$d.cdf"), 100 );
+        String s= cache.format( new int[] { 2005,1,1,0,0,0,0 }, new int[] { 2005,1,2,0,0,0,0 }, Collections.singletonMap( "sc", "mag" ) );
+        assertEquals( "mag_20050101.cdf", s );
+        assertSame( s, cache.format( new int[] { 2005,1,1,12,0,0,0 }, new int[] { 2005,1,1,13,0,0,0 }, Collections.singletonMap( "sc", "mag" ) ) );
+        assertEquals( "swe_20050101.cdf", cache.format( new int[] { 2005,1,1,0,0,0,0 }, new int[] { 2005,1,2,0,0,0,0 }, Collections.singletonMap( "sc", "swe" ) ) );
+        assertEquals( 1, cache.getFormatHits() );
+        assertEquals( 2, cache.getFormatMisses() );
+        cache.clear();
+        assertEquals( 0, cache.getFormatSize() );
+        assertEquals( 0, cache.getFormatHits() );
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.hapiserver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of URITemplateRouter, which finds the template matching a name.
+ * @author jbf
+ */
+public class URITemplateRouterTest {
+    
+    public URITemplateRouterTest() {
+    }
+
+    private static URITemplateRouter newRouter() {
+        return new URITemplateRouter( Arrays.asList( 
+                new URITemplate("ace_mag_$Y_$j.cdf"),
+                new URITemplate("ace_swe_$Y_$j.cdf"),
+                new URITemplate("$Y$m$d_$(x;name=sc).dat"),
+                new URITemplate("ace_$x_$Y_$j.cdf") ) );
+    }
+    
+    /**
+     * Test of routeFirst method, of class URITemplateRouter.
+     */
+    @Test
+    public void testRouteFirst() {
+        System.out.println("routeFirst");
+        URITemplateRouter router= newRouter();
+        int[] r= new int[TimeUtil.TIME_RANGE_DIGITS];
+        assertEquals( 1, router.routeFirst( "ace_swe_2005_001.cdf", r ) );
+        assertArrayEquals( new int[] { 2005,1,1,0,0,0,0, 2005,1,2,0,0,0,0 }, r );
+        assertEquals( 0, router.routeFirst( "ace_mag_2005_002.cdf", r ) );
+        assertEquals( 3, router.routeFirst( "ace_epam_2005_002.cdf", r ) );
+        assertEquals( 2, router.routeFirst( "20050102_3.dat", r ) );
+        assertEquals( -1, router.routeFirst( "README.txt", r ) );
+        Map<String,String> extra= new HashMap<>();
+        assertEquals( 2, router.routeFirst( "20050102_3.dat", r, extra ) );
+        assertEquals( "3", extra.get("sc") );
+    }
+
+    /**
+     * Test of route method, of class URITemplateRouter.
+     */
+    @Test
+    public void testRoute() {
+        System.out.println("route");
+        URITemplateRouter router= newRouter();
+        List<URITemplateRouter.Match> mm= router.route( "ace_swe_2005_001.cdf" );
+        assertEquals( 2, mm.size() );
+        assertEquals( 1, mm.get(0).getIndex() );
+        assertEquals( 3, mm.get(1).getIndex() );
+        assertArrayEquals( new int[] { 2005,1,1,0,0,0,0, 2005,1,2,0,0,0,0 }, mm.get(1).getTimeRange() );
+        assertTrue( router.route( "README.txt" ).isEmpty() );
+    }
+    
+    /**
+     * Test of routing templates which start with a field, which are found by their literal end.
+     */
+    @Test
+    public void testRouteBySuffix() {
+        System.out.println("routeBySuffix");
+        URITemplateRouter router= new URITemplateRouter( Arrays.asList( 
+                new URITemplate("$Y$m$d_mag.cdf"),
+                new URITemplate("$Y$m$d_swe.cdf"),
+                new URITemplate("$Y/$j/$Y$j_epam.dat"),
+                new URITemplate("$Y$m$d_$(x;name=sc).dat"),
+                new URITemplate("$Y$m$d_$x") ) );
+        int[] r= new int[TimeUtil.TIME_RANGE_DIGITS];
+        assertEquals( 1, router.routeFirst( "20050102_swe.cdf", r ) );
+        assertArrayEquals( new int[] { 2005,1,2,0,0,0,0, 2005,1,3,0,0,0,0 }, r );
+        assertEquals( 0, router.routeFirst( "20050102_mag.cdf", r ) );
+        assertEquals( 2, router.routeFirst( "2005/002/2005002_epam.dat", r ) );
+        assertEquals( 3, router.routeFirst( "20050102_3.dat", r ) );
+        assertEquals( 4, router.routeFirst( "20050102_3.txt", r ) );
+        assertEquals( -1, router.routeFirst( "README.txt", r ) );
+        Map<String,String> extra= new HashMap<>();
+        assertEquals( 3, router.routeFirst( "20050102_3.dat", r, extra ) );
+        assertEquals( "3", extra.get("sc") );
+        List<URITemplateRouter.Match> mm= router.route( "20050102_swe.cdf" );
+        assertEquals( 2, mm.size() );
+        assertEquals( 1, mm.get(0).getIndex() );
+        assertEquals( 4, mm.get(1).getIndex() );
+    }
+    
+}
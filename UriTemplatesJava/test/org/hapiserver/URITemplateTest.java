@@ -5,14 +5,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -272,7 +279,449 @@ public class URITemplateTest {
         int[] r= t.parse( "/tmp/ap/2024__Apple.dat", e );
         assertArrayEquals( new int[] { 2024,1,1,0,0,0,0, 2025,1,1,0,0,0,0 }, r );
     }
+
+    @Test
+    public void testParseInto() throws ParseException {
+        System.out.println("# testParseInto");
+        StringBuilder listing= new StringBuilder("ace_mag_2005_001_to_2005_003.cdf\nace_mag_2005_004_to_2005_006.cdf\n");
+        URITemplate t= new URITemplate("ace_mag_$Y_$j_to_$(Y;end)_$j.cdf");
+        int[] r= new int[TimeUtil.TIME_RANGE_DIGITS];
+        t.parseInto( listing, 0, 32, r, null );
+        assertArrayEquals( new int[] { 2005,1,1,0,0,0,0, 2005,1,3,0,0,0,0 }, r );
+        t.parseInto( listing, 33, 65, r, null );
+        assertArrayEquals( new int[] { 2005,1,4,0,0,0,0, 2005,1,6,0,0,0,0 }, r );
+
+        t= new URITemplate("$Y_$(b;case=uc;fmt=full)_$d_$v");
+        t.parseInto( "x2000_NOVEMBER_23_00x", 1, 20, r, null );
+        assertArrayEquals( t.parse("2000_NOVEMBER_23_00"), r );
+
+        t= new URITemplate("ace_mag_$Y_$j_to_$(Y;end)_$j.cdf");
+        try {
+            t.parseInto( listing, 0, 33, r, null );
+            fail("trailing character should not parse");
+        } catch ( ParseException ex ) {
+            System.out.println( ex.getMessage() );
+        }
+    }
+
+    @Test
+    public void testTryParse() {
+        System.out.println("# testTryParse");
+        URITemplate t= new URITemplate("ace_mag_$Y_$j_to_$(Y;end)_$j.cdf");
+        int[] r= new int[TimeUtil.TIME_RANGE_DIGITS];
+        assertEquals( URITemplate.PARSE_OK, t.tryParse( "ace_mag_2005_001_to_2005_003.cdf", r ) );
+        assertArrayEquals( new int[] { 2005,1,1,0,0,0,0, 2005,1,3,0,0,0,0 }, r );
+        assertEquals( URITemplate.PARSE_NO_MATCH, t.tryParse( "wind_mag_2005_001_to_2005_003.cdf", r ) );
+        assertEquals( URITemplate.PARSE_NO_MATCH, t.tryParse( "ace_mag_2005", r ) );
+        
+        URITemplate.ParseStatus status= new URITemplate.ParseStatus();
+        assertEquals( URITemplate.PARSE_WRONG_DELIMITER, t.tryParse( "wind_mag_2005_001_to_2005_003.cdf", 0, 33, r, null, status ) );
+        assertEquals( "Expected \"ace_mag_\" before $Y, got: wind_mag", status.getMessage() );
+        String s= "ace_mag_2005_0x1_to_2005_003.cdf";
+        assertEquals( URITemplate.PARSE_BAD_DIGIT, t.tryParse( s, 0, s.length(), r, null, status ) );
+        assertEquals( 2, status.getField() );
+        assertEquals( "fail to parse digit number 2: 0x1", status.getMessage() );
+        try {
+            t.parse( s );
+            fail("ParseException expected");
+        } catch ( ParseException ex ) {
+            assertEquals( status.getMessage(), ex.getMessage() );
+            assertEquals( status.getPosition(), ex.getErrorOffset() );
+        }
+        
+        t= new URITemplate("$Y_$(b)_$d");
+        assertEquals( URITemplate.PARSE_OK, t.tryParse( "2000_Nov_23", 0, 11, r, null, status ) );
+        assertEquals( URITemplate.PARSE_BAD_DIGIT, t.tryParse( "2000_Nox_23", 0, 11, r, null, status ) );
+        assertEquals( "Unable to parse month", status.getMessage() );
+        
+        t= new URITemplate("$Y");
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParse( "9999", r ) );
+    }
+
+    @Test
+    public void testTryParseFieldErrors() {
+        System.out.println("# testTryParseFieldErrors");
+        int[] r= new int[TimeUtil.TIME_RANGE_DIGITS];
+        URITemplate.ParseStatus status= new URITemplate.ParseStatus();
+        
+        URITemplate t= new URITemplate("$(periodic;offset=0;start=2000-001;period=P1D)");
+        assertEquals( URITemplate.PARSE_BAD_DIGIT, t.tryParse( "25x", r ) );
+        assertEquals( URITemplate.PARSE_BAD_DIGIT, t.tryParse( "25x", 0, 3, r, null, status ) );
+        assertEquals( "fail to parse digit number 1: 25x", status.getMessage() );
+        try {
+            t.parse( "25x" );
+            fail("ParseException expected");
+        } catch ( ParseException ex ) {
+            assertEquals( "fail to parse digit number 1: 25x", ex.getMessage() );
+        }
+        
+        t= new URITemplate("$Y_$j_$H$M$S.$(subsec;places=3)");
+        assertEquals( URITemplate.PARSE_BAD_DIGIT, t.tryParse( "2016_142_015640.0-5", r ) );
+        try {
+            t.parse( "2016_142_015640.0-5" );
+            fail("ParseException expected");
+        } catch ( ParseException ex ) {
+            assertEquals( "fail to parse digit number 6: 0-5", ex.getMessage() );
+        }
+        
+        t= new URITemplate("$Y$m$d");
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParse( "20185613", r ) );
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParse( "20180245", r ) );
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParse( "20180229", r ) );
+        assertEquals( URITemplate.PARSE_OK, t.tryParse( "20200229", r ) );
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParse( "20180245", 0, 8, r, null, status ) );
+        assertEquals( "digit number 3 is out of range for $d: 45", status.getMessage() );
+        try {
+            t.parse( "20185613" );
+            fail("ParseException expected");
+        } catch ( ParseException ex ) {
+            assertEquals( "digit number 2 is out of range for $m: 56", ex.getMessage() );
+        }
+        
+        t= new URITemplate("$Y-$j");
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParse( "2018-366", r ) );
+        assertEquals( URITemplate.PARSE_OK, t.tryParse( "2020-366", r ) );
+        
+        t= new URITemplate("$Y$m$dT$H$M$S");
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParse( "20180201T250000", r ) );
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParse( "20180201T006000", r ) );
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParse( "20180201T240100", r ) );
+        assertEquals( URITemplate.PARSE_OK, t.tryParse( "20180201T240000", r ) );
+        assertArrayEquals( new int[] { 2018,2,2,0,0,0,0 }, Arrays.copyOf( r, 7 ) );
+    }
     
+    /**
+     * hour 24 is a normal way to write the end of a day, and is carried to the next day.
+     * @throws ParseException 
+     */
+    @Test
+    public void testParseHour24() throws ParseException {
+        System.out.println("# testParseHour24");
+        URITemplate t= new URITemplate("$Y$m$d_$H-$(H;end)");
+        assertArrayEquals( new int[] { 2000,1,1,18,0,0,0, 2000,1,2,0,0,0,0 }, t.parse( "20000101_18-24" ) );
+        t= new URITemplate("$Y-$m-$dT$H:$M/$(H;end):$(M;end)");
+        assertArrayEquals( new int[] { 2000,1,1,23,0,0,0, 2000,1,2,0,0,0,0 }, t.parse( "2000-01-01T23:00/24:00" ) );
+        t= new URITemplate("$Y$m$d$H");
+        assertArrayEquals( new int[] { 2000,1,2,0,0,0,0, 2000,1,2,1,0,0,0 }, t.parse( "2000010124" ) );
+    }
+
+    @Test
+    public void testMayMatch() {
+        System.out.println("# testMayMatch");
+        URITemplate t= new URITemplate("ace_mag_$Y_$j_to_$(Y;end)_$j.cdf");
+        assertTrue( t.mayMatch( "ace_mag_2005_001_to_2005_003.cdf" ) );
+        assertFalse( t.mayMatch( "ace_mag_2005_001_to_2005_003.cdf.md5" ) );
+        assertFalse( t.mayMatch( "ace_swe_2005_001_to_2005_003.cdf" ) );
+        assertFalse( t.mayMatch( "ace_mag_2005_0x1_to_2005_003.cdf" ) );
+        assertFalse( t.mayMatch( "ace_mag_2005_001_tx_2005_003.cdf" ) );
+        t= new URITemplate("$x_$Y$m$d.dat");
+        assertTrue( t.mayMatch( "sc1_20050101.dat" ) );
+        assertFalse( t.mayMatch( "sc1_20050101.txt" ) );
+        assertFalse( t.mayMatch( ".dat" ) );
+        t= new URITemplate("$Y/$m/$(enum;values=a,bb)_$d.dat");
+        assertTrue( t.mayMatch( "2005/01/bb_03.dat" ) );
+        assertFalse( t.mayMatch( "2005-01/bb_03.dat" ) );
+    }
+
+    @Test
+    public void testParseVariable() throws ParseException {
+        System.out.println("# testParseVariable");
+        URITemplate t= new URITemplate("$x_$Y.dat");
+        Map<String,String> extra= new HashMap<>();
+        assertArrayEquals( new int[] { 2012,1,1,0,0,0,0, 2013,1,1,0,0,0,0 }, t.parse( "a_b_2012.dat", extra ) );
+        t= new URITemplate("$(b;fmt=full)$d_$Y.dat");
+        assertArrayEquals( new int[] { 2000,11,23,0,0,0,0, 2000,11,24,0,0,0,0 }, t.parse( "November23_2000.dat", extra ) );
+        assertEquals( URITemplate.PARSE_NO_MATCH, t.tryParse( "November23-2000.dat", new int[TimeUtil.TIME_RANGE_DIGITS] ) );
+    }
+
+    @Test
+    public void testParseEnum() throws ParseException {
+        System.out.println("# testParseEnum");
+        StringBuilder values= new StringBuilder("sta1");
+        for ( int i=2; i<3000; i++ ) {
+            values.append(",sta").append(i);
+        }
+        URITemplate t= new URITemplate("$(enum;values="+values+";id=st)$Y$m$d.dat");
+        Map<String,String> extra= new HashMap<>();
+        assertArrayEquals( new int[] { 2005,1,1,0,0,0,0, 2005,1,2,0,0,0,0 }, t.parse( "sta1020050101.dat", extra ) );
+        assertEquals( "sta10", extra.get("st") );
+        assertEquals( URITemplate.PARSE_NO_MATCH, t.tryParse( "sta3000_20050101.dat", new int[TimeUtil.TIME_RANGE_DIGITS] ) );
+        
+        URITemplate.EnumFieldHandler h= new URITemplate.EnumFieldHandler();
+        h.configure( Collections.singletonMap( "values", "b,a,ab" ) );
+        assertArrayEquals( new String[] { "b", "a", "ab" }, h.getValues() );
+        assertEquals( 2, h.indexOf( "xab", 1, 3 ) );
+        assertEquals( -1, h.indexOf( "xab", 0, 3 ) );
+        assertEquals( "ab", h.getValue(2) );
+    }
+
+    @Test
+    public void testLatestVersionSelector() {
+        System.out.println("# testLatestVersionSelector");
+        URITemplate.LatestVersionSelector sel= new URITemplate.LatestVersionSelector( 
+                new URITemplate("$Y$m$d_v$(v;sep;lt=2.0).cdf") );
+        for ( String n: new String[] { "20050101_v1.3.cdf", "20050102_v1.0.cdf", "20050101_v1.20.cdf", 
+            "20050101_v2.1.cdf", "20050102_v1.0.1.cdf", "README.txt" } ) {
+            sel.add(n);
+        }
+        assertEquals( 2, sel.size() );
+        assertEquals( Arrays.asList( "20050101_v1.20.cdf", "20050102_v1.0.1.cdf" ), sel.getLatest() );
+        
+        sel= new URITemplate.LatestVersionSelector( new URITemplate("$(x;name=sc)_$Y_v$v.cdf") );
+        assertTrue( sel.add( "a_2005_v1.cdf" ) );
+        assertTrue( sel.add( "b_2005_v3.cdf" ) );
+        assertTrue( sel.add( "a_2005_v2.cdf" ) );
+        assertFalse( sel.add( "a_2005_vX.cdf" ) );
+        assertEquals( Arrays.asList( "a_2005_v2.cdf", "b_2005_v3.cdf" ), sel.getLatest() );
+    }
+
+    @Test
+    public void testExtras() throws ParseException {
+        System.out.println("# testExtras");
+        URITemplate t= new URITemplate("$(x;name=sc)_$(enum;values=mag,swe;id=inst)_$Y$m$d_v$v.dat");
+        URITemplate.Extras extras= t.newExtras();
+        assertEquals( 3, extras.getSlotCount() );
+        int sc= extras.getSlot("sc");
+        int inst= extras.getSlot("inst");
+        int v= extras.getSlot("v");
+        StringBuilder name= new StringBuilder("42_swe_20050101_v3.dat");
+        assertArrayEquals( new int[] { 2005,1,1,0,0,0,0, 2005,1,2,0,0,0,0 }, t.parse( name.toString(), extras ) );
+        assertEquals( 42, extras.getInt(sc) );
+        assertEquals( 1, extras.getIndex(inst) );
+        assertEquals( "swe", extras.get("inst") );
+        assertEquals( 3.0, extras.getDouble(v), 0 );
+        assertEquals( "42_swe_20050101_v3.dat", t.formatStartStopRange( new int[] { 2005,1,1,0,0,0,0 }, new int[] { 2005,1,2,0,0,0,0 }, extras ) );
+        
+        int[] r= new int[TimeUtil.TIME_RANGE_DIGITS];
+        assertEquals( URITemplate.PARSE_OK, t.tryParse( name, 0, name.length(), r, extras, null ) );
+        extras.materialize();
+        name.setCharAt( 0, '7' );
+        assertEquals( "42", extras.getString(sc) );
+        assertEquals( 3, extras.size() );
+        
+        extras.put( "other", "1" );
+        assertEquals( "1", extras.get("other") );
+        assertEquals( 4, extras.size() );
+        extras.clear();
+        assertFalse( extras.isSet(sc) );
+        assertTrue( extras.isEmpty() );
+    }
+
+    @Test
+    public void testParseNanoseconds() throws ParseException {
+        System.out.println("# testParseNanoseconds");
+        URITemplate t= new URITemplate("ace_mag_$Y_$j_to_$(Y;end)_$j.cdf");
+        long[] ns= t.parseNanoseconds( "ace_mag_2005_001_to_2005_003.cdf", null );
+        assertArrayEquals( new long[] { 1104537600000000000L, 1104710400000000000L }, ns );
+        long[] ms= t.parseMilliseconds( "ace_mag_2005_001_to_2005_003.cdf", null );
+        assertArrayEquals( new long[] { 1104537600000L, 1104710400000L }, ms );
+        long[] buf= new long[4];
+        assertEquals( URITemplate.PARSE_OK, t.tryParseNanoseconds( "ace_mag_2005_001_to_2005_003.cdf", buf, 2 ) );
+        assertEquals( ns[1], buf[3] );
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParseNanoseconds( "ace_mag_2999_001_to_2999_003.cdf", buf, 0 ) );
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParseNanoseconds( "ace_mag_2999_001_to_2005_003.cdf", buf, 0 ) );
+        assertEquals( URITemplate.PARSE_OUT_OF_RANGE, t.tryParseNanoseconds( "ace_mag_2005_001_to_1600_003.cdf", buf, 0 ) );
+        assertEquals( URITemplate.PARSE_NO_MATCH, t.tryParseMilliseconds( "README.txt", buf, 0 ) );
+        assertEquals( "ace_mag_2005_001_to_2005_003.cdf", t.formatNanoseconds( ns[0], ns[1], null ) );
+        assertEquals( "ace_mag_2005_001_to_2005_003.cdf", t.formatMilliseconds( ms[0], ms[1], null ) );
+    }
+
+    @Test
+    public void testFormatInto() throws IOException {
+        System.out.println("# testFormatInto");
+        URITemplate t= new URITemplate("$Y/$(b;case=uc)/$y$m$(d;pad=space)_$(H;delta=6)$v.dat");
+        int[] start= new int[] { 2005,2,3,14,0,0,0 };
+        int[] stop= new int[] { 2005,2,3,20,0,0,0 };
+        Map<String,String> extra= Collections.singletonMap( "v", "2" );
+        String expect= "2005/FEB/05023 _122.dat";
+        assertEquals( expect, t.formatStartStopRange( start, stop, extra ) );
+        StringBuilder sb= new StringBuilder("http://example.com/");
+        t.formatTo( start, stop, extra, sb );
+        assertEquals( "http://example.com/"+expect, sb.toString() );
+        char[] cc= new char[40];
+        int n= t.formatInto( start, stop, extra, cc, 2 );
+        assertEquals( expect, new String( cc, 2, n ) );
+        byte[] bb= new byte[40];
+        n= t.formatInto( start, stop, extra, bb, 0 );
+        assertEquals( expect, new String( bb, 0, n, StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void testFormatRangeIterator() throws ParseException {
+        System.out.println("# testFormatRangeIterator");
+        URITemplate t= new URITemplate("$Y/$j/$H$M$S.dat");
+        Iterator<String> it= t.formatRangeIterator( new int[] { 2005,1,1,0,0,0,0 }, new int[] { 2005,1,2,0,0,0,0 }, null );
+        int n= 0;
+        String last= null;
+        while ( it.hasNext() ) {
+            last= it.next();
+            n++;
+        }
+        assertEquals( 86400, n );
+        assertEquals( "2005/001/235959.dat", last );
+        
+        t= new URITemplate("$Y$m$d_$(H;delta=6).dat");
+        it= t.formatRangeIterator( new int[] { 2004,12,31,13,0,0,0 }, new int[] { 2005,1,1,1,0,0,0 }, null );
+        assertEquals( "20041231_12.dat", it.next() );
+        assertEquals( "20041231_18.dat", it.next() );
+        assertEquals( "20050101_00.dat", it.next() );
+        assertFalse( it.hasNext() );
+        assertArrayEquals( new String[] { "20041231_12.dat", "20041231_18.dat", "20050101_00.dat" }, 
+                URITemplate.formatRange( "$Y$m$d_$(H;delta=6).dat", "2004-12-31T13:00Z", "2005-01-01T01:00Z" ) );
+    }
+
+    @Test
+    public void testFormatRangeIteratorEnums() throws ParseException {
+        System.out.println("# testFormatRangeIteratorEnums");
+        URITemplate t= new URITemplate("data_$(enum;id=sc;values=a,b,c)_$Y$m$d.cdf");
+        int[] start= new int[] { 2000,1,1,0,0,0,0 };
+        int[] stop= new int[] { 2000,1,3,0,0,0,0 };
+        List<String> names= new ArrayList<>();
+        t.formatRangeIterator( start, stop, null, true ).forEachRemaining( names::add );
+        assertEquals( Arrays.asList( "data_a_20000101.cdf", "data_b_20000101.cdf", "data_c_20000101.cdf", 
+                "data_a_20000102.cdf", "data_b_20000102.cdf", "data_c_20000102.cdf" ), names );
+        names.clear();
+        t.formatRangeIterator( start, stop, null, false ).forEachRemaining( names::add );
+        assertEquals( Arrays.asList( "data_a_20000101.cdf", "data_a_20000102.cdf", "data_b_20000101.cdf", 
+                "data_b_20000102.cdf", "data_c_20000101.cdf", "data_c_20000102.cdf" ), names );
+        names.clear();
+        t.formatRangeIterator( start, stop, Collections.singletonMap( "sc", "b" ), true ).forEachRemaining( names::add );
+        assertEquals( Arrays.asList( "data_b_20000101.cdf", "data_b_20000102.cdf" ), names );
+        
+        // two fields of 3000 values are expanded as the names are needed.
+        StringBuilder values= new StringBuilder("s0");
+        for ( int i=1; i<3000; i++ ) {
+            values.append(",s").append(i);
+        }
+        t= new URITemplate("$(enum;id=a;values="+values+")_$(enum;id=b;values="+values+")_$Y$m$d.cdf");
+        Iterator<String> it= t.formatRangeIterator( start, stop, null, true );
+        assertEquals( "s0_s0_20000101.cdf", it.next() );
+        assertEquals( "s0_s1_20000101.cdf", it.next() );
+        for ( int i=2; i<3000; i++ ) {
+            it.next();
+        }
+        assertEquals( "s1_s0_20000101.cdf", it.next() );
+        it= t.formatRangeIterator( start, stop, null, false );
+        assertEquals( "s0_s0_20000101.cdf", it.next() );
+        assertEquals( "s0_s0_20000102.cdf", it.next() );
+        assertEquals( "s0_s1_20000101.cdf", it.next() );
+    }
+
+    @Test
+    public void testFormatRangeSpliterator() throws ParseException {
+        System.out.println("# testFormatRangeSpliterator");
+        URITemplate t= new URITemplate("$Y/$j/$H$M.dat");
+        int[] start= new int[] { 2004,12,31,13,5,0,0 };
+        int[] stop= new int[] { 2005,1,2,0,0,0,0 };
+        Spliterator<String> sp= t.formatRangeSpliterator( start, stop, null );
+        assertEquals( 34*60+55, sp.getExactSizeIfKnown() );
+        List<String> expect= new ArrayList<>();
+        t.formatRangeIterator( start, stop, null ).forEachRemaining( expect::add );
+        assertEquals( expect, t.formatRangeStream( start, stop, null ).parallel().collect( Collectors.toList() ) );
+        
+        t= new URITemplate("$Y$(m;delta=3).dat");
+        sp= t.formatRangeSpliterator( new int[] { 2000,2,1,0,0,0,0 }, new int[] { 2001,1,1,0,0,0,0 }, null );
+        assertEquals( 4, sp.getExactSizeIfKnown() );
+        Spliterator<String> prefix= sp.trySplit();
+        assertEquals( 2, prefix.getExactSizeIfKnown() );
+        prefix.tryAdvance( s -> assertEquals( "200001.dat", s ) );
+        sp.tryAdvance( s -> assertEquals( "200007.dat", s ) );
+    }
+
+    @Test
+    public void testGranuleArithmetic() {
+        System.out.println("# testGranuleArithmetic");
+        URITemplate t= new URITemplate("$Y$m$d.dat");
+        assertTrue( t.hasRegularGranules() );
+        assertEquals( 10957, t.granuleIndex( new int[] { 2000,1,1,12,0,0,0 } ) );
+        assertArrayEquals( new int[] { 2000,1,1,0,0,0,0, 2000,1,2,0,0,0,0 }, t.granuleAt( 10957 ) );
+        int[] tr= new int[] { 2000,1,1,12,0,0,0, 2000,1,3,0,0,0,0 };
+        assertEquals( 2, t.countGranules( tr ) );
+        assertEquals( 0, t.countGranules( new int[] { 2000,1,1,12,0,0,0, 2000,1,1,12,0,0,0 } ) );
+        assertEquals( 0, t.countGranules( new int[] { 2000,1,2,12,0,0,0, 2000,1,1,12,0,0,0 } ) );
+        assertEquals( 0, t.countGranules( new int[] { 2000,1,2,0,0,0,0, 2000,1,1,0,0,0,0 } ) );
+        assertArrayEquals( new int[] { 2000,1,1,0,0,0,0, 2000,1,3,0,0,0,0 }, t.snapToGranules( tr ) );
+        
+        t= new URITemplate("$Y$m$(d;delta=2;phasestart=2000-01-03).dat");
+        assertEquals( -2, t.granuleIndex( new int[] { 1999,12,31,0,0,0,0 } ) );
+        assertArrayEquals( new int[] { 2000,1,5,0,0,0,0, 2000,1,7,0,0,0,0 }, t.granuleAt( 1 ) );
+        
+        t= new URITemplate("$Y$m$d_$(H;shift=-3).dat");
+        assertArrayEquals( new int[] { 1969,12,31,21,0,0,0, 1969,12,31,22,0,0,0 }, t.granuleAt( 0 ) );
+        assertEquals( 24, t.countGranules( new int[] { 2000,1,1,0,0,0,0, 2000,1,2,0,0,0,0 } ) );
+        
+        assertFalse( new URITemplate("$Y$(j;delta=5)").hasRegularGranules() );
+        assertFalse( new URITemplate("$Y$m$d_$(Y;end)$m$d").hasRegularGranules() );
+    }
+
+    @Test
+    public void testFormatBatch() {
+        System.out.println("# testFormatBatch");
+        URITemplate t= new URITemplate("$Y/$m/$d/data_$Y$m$d.cdf");
+        long day= 86400000000000L;
+        long t0= 946684800000000000L; // 2000-01-01T00:00Z
+        long[] start= new long[] { t0, t0+day/2, t0+day-1, t0+day, t0+3*day };
+        long[] stop= new long[] { t0+1000, t0+day/2+1000, t0+day, t0+day+1000, t0+3*day+1000 };
+        URITemplate.NameBatch b= t.formatBatch( start, stop, null );
+        assertEquals( 5, b.size() );
+        assertEquals( 3, b.getNameCount() );
+        assertArrayEquals( new int[] { 0, 0, 0, 1, 2 }, b.getNameIndex() );
+        assertEquals( "2000/01/01/data_20000101.cdf", new String( b.getChars(), 0, b.getOffsets()[1] ) );
+        assertEquals( "2000/01/02/data_20000102.cdf", b.getName( 3 ) );
+        assertEquals( "2000/01/04/data_20000104.cdf", b.getName( 4 ) );
+        
+        b= t.formatBatch( new int[] { 2000,1,1,0,0,0,0, 2000,1,2,0,0,0,0, 2000,1,1,12,0,0,0, 2000,1,2,0,0,0,0 }, null );
+        assertEquals( 1, b.getNameCount() );
+    }
+
+    @Test
+    public void testParseBatch() {
+        System.out.println("# testParseBatch");
+        URITemplate t= new URITemplate("ace_mag_$Y_$j_to_$(Y;end)_$j.cdf");
+        URITemplate.RangeBatch b= t.parseBatch( Arrays.asList( 
+                "ace_mag_2005_001_to_2005_003.cdf", "README.txt", "ace_mag_2999_001_to_2999_003.cdf" ) );
+        assertEquals( 3, b.size() );
+        assertArrayEquals( new int[] { URITemplate.PARSE_OK, URITemplate.PARSE_NO_MATCH, URITemplate.PARSE_OUT_OF_RANGE }, b.getStatus() );
+        assertEquals( 1, b.getParsedCount() );
+        assertEquals( 1104537600000000000L, b.getStart()[0] );
+        assertEquals( 2*86400000000000L, b.getStop()[0]-b.getStart()[0] );
+        assertArrayEquals( new int[] { 2005,1,1,0,0,0,0, 2005,1,3,0,0,0,0 }, b.getTimeRange( 0, null ) );
+    }
+
+    @Test
+    public void testParseBytes() throws ParseException {
+        System.out.println("# testParseBytes");
+        byte[] listing= "ace_mag_2005_001_to_2005_003.cdf\nsc_été_2005_004.cdf\n".getBytes(StandardCharsets.UTF_8);
+        URITemplate t= new URITemplate("ace_mag_$Y_$j_to_$(Y;end)_$j.cdf");
+        int[] r= new int[TimeUtil.TIME_RANGE_DIGITS];
+        t.parseInto( listing, 0, 32, r, null );
+        assertArrayEquals( new int[] { 2005,1,1,0,0,0,0, 2005,1,3,0,0,0,0 }, r );
+
+        ByteBuffer buf= ByteBuffer.allocateDirect(listing.length);
+        buf.put(listing);
+        buf.position(0).limit(32);
+        t.parseInto( buf, r, null );
+        assertArrayEquals( new int[] { 2005,1,1,0,0,0,0, 2005,1,3,0,0,0,0 }, r );
+
+        t= new URITemplate("sc_$(x;name=sc)_$Y_$j.cdf");
+        Map<String,String> extra= new HashMap<>();
+        t.parseInto( listing, 33, listing.length-1, r, extra );
+        assertArrayEquals( new int[] { 2005,1,4,0,0,0,0, 2005,1,5,0,0,0,0 }, r );
+        assertEquals( "été", extra.get("sc") );
+
+        t= new URITemplate("sc_été_$Y_$j.cdf");
+        t.parseInto( listing, 33, listing.length-1, r, extra );
+        assertArrayEquals( new int[] { 2005,1,4,0,0,0,0, 2005,1,5,0,0,0,0 }, r );
+        
+        byte[] bad= "sc_été_2005_0x4.cdf".getBytes(StandardCharsets.UTF_8);
+        try {
+            t.parseInto( bad, 0, bad.length, r, extra );
+            fail("0x4 is not a day of year");
+        } catch ( ParseException ex ) {
+            assertEquals( 14, ex.getErrorOffset() ); // character 12, after the two-byte é characters.
+        }
+    }
+
     /**
      * Test of format method, of class URITemplate.
      * @throws java.lang.Exception